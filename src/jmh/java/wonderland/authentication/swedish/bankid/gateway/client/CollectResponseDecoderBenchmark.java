@@ -0,0 +1,77 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectResponseDecoderBenchmark {
+
+    private static final ResolvableType COLLECT_RESPONSE_TYPE = ResolvableType.forClass(CollectResponse.class);
+    private static final String PENDING = """
+            {"orderRef":"131daac9-16c6-4618-beb0-365768f37288","status":"pending","hintCode":"outstandingTransaction"}""";
+    private static final String COMPLETE = """
+            {"orderRef":"131daac9-16c6-4618-beb0-365768f37288","status":"complete","completionData":{
+            "user":{"personalNumber":"190000000000","name":"Karl Karlsson","givenName":"Karl","surname":"Karlsson"},
+            "device":{"ipAddress":"192.168.0.1","uhi":"OZvYM9VvyiAmG7NA5jU5zRGcSC9pqfWxSdwbQpRsw0"},
+            "bankIdIssueDate":"2020-02-01","stepUp":{"mrtd":false},"signature":"PD94bWwgdmVyc2lvbj0iMS4wIiBlbmNvZGluZz0i",
+            "ocspResponse":"MIIHegoBAKCCB3MwggdvBgkrBgEFBQcwAQEEggdgMIIHXDCB","risk":"low"}}""";
+
+    @Param({"pending", "complete"})
+    String status;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private final Jackson2JsonDecoder jacksonDecoder = new Jackson2JsonDecoder(Jackson2ObjectMapperBuilder.json().build());
+    private final CollectResponseDecoder collectResponseDecoder = new CollectResponseDecoder();
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        json = (status.equals("pending") ? PENDING : COMPLETE).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Object jacksonDatabind() {
+        return jacksonDecoder.decode(buffer(), COLLECT_RESPONSE_TYPE, MediaType.APPLICATION_JSON, Map.of());
+    }
+
+    @Benchmark
+    public CollectResponse streamingDecoder() {
+        return collectResponseDecoder.decode(buffer(), COLLECT_RESPONSE_TYPE, MediaType.APPLICATION_JSON, Map.of());
+    }
+
+    @Benchmark
+    public CollectResponse streamingDecoderFromBytes() {
+        return collectResponseDecoder.decode(json);
+    }
+
+    private DataBuffer buffer() {
+        DataBuffer buffer = bufferFactory.allocateBuffer(json.length);
+        return buffer.write(json);
+    }
+}
@@ -0,0 +1,54 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.CharSequenceEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBodyBenchmark {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+    private static final JsonBodyTemplate ORDER_REF_BODY = JsonBodyTemplate.of("{\"orderRef\":\"", "\"}");
+    private static final ResolvableType STRING_TYPE = ResolvableType.forClass(String.class);
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private final CharSequenceEncoder charSequenceEncoder = CharSequenceEncoder.allMimeTypes();
+
+    @Benchmark
+    public int formattedString() {
+        DataBuffer buffer = charSequenceEncoder.encodeValue("""
+                {"orderRef": "%s"}
+                """.formatted(ORDER_REFERENCE), bufferFactory, STRING_TYPE, MediaType.APPLICATION_JSON, null);
+        int length = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return length;
+    }
+
+    @Benchmark
+    public int preEncodedTemplate() {
+        DataBuffer buffer = ORDER_REF_BODY.encode(ORDER_REFERENCE, bufferFactory);
+        int length = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return length;
+    }
+}
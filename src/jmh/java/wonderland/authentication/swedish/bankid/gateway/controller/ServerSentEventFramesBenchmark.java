@@ -0,0 +1,133 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.ServerSentEventHttpMessageWriter;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.CompletedAuthentication;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerSentEventFramesBenchmark {
+
+    private static final String HANDLE = "8f6a3f57-6d0e-4a8e-9a55-4d1f5b1b2a51";
+    private static final ResolvableType SERVER_SENT_EVENT_TYPE = ResolvableType.forClass(ServerSentEvent.class);
+
+    @Param({"sameDevicePending", "qrPending", "complete"})
+    String event;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private final ServerSentEventHttpMessageWriter writer = new ServerSentEventHttpMessageWriter(
+            new Jackson2JsonEncoder(Jackson2ObjectMapperBuilder.json().build()));
+    private final ReleasingOutputMessage outputMessage = new ReleasingOutputMessage(bufferFactory);
+    private final ServerSentEventFrames frames = new ServerSentEventFrames(bufferFactory);
+    private Supplier<AuthenticationEvent> events;
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        events = switch (event) {
+            case "sameDevicePending" -> () -> AuthenticationEvent.pending(String.valueOf(sequence++), "autoStartToken-0c0f3b5e",
+                    "outstandingTransaction").withHandle(HANDLE);
+            case "qrPending" -> () -> AuthenticationEvent.pending(String.valueOf(sequence),
+                    "bankid.67df3917-fa0d-44e5-b327-edcc928297f8.%d.dc69358e712458a66a7525beef148ae8526b1c71610eff2c16cdffb4cdac9bf8"
+                            .formatted(sequence++), "userSign").withHandle(HANDLE);
+            default -> () -> AuthenticationEvent.complete(String.valueOf(sequence++),
+                    new CompletedAuthentication("131daac9-16c6-4618-beb0-365768f37288", "190001010101")).withHandle(HANDLE);
+        };
+    }
+
+    @Benchmark
+    public Object serverSentEventCodec() {
+        AuthenticationEvent authenticationEvent = events.get();
+        return writer.write(Mono.just(ServerSentEvent.<AuthenticationEvent>builder()
+                        .id(authenticationEvent.eventId())
+                        .event(authenticationEvent.status().toString())
+                        .data(authenticationEvent)
+                        .build()), SERVER_SENT_EVENT_TYPE, MediaType.TEXT_EVENT_STREAM, outputMessage, Map.of())
+                .block();
+    }
+
+    @Benchmark
+    public int preSerializedFrame() {
+        DataBuffer buffer = frames.encode(events.get());
+        int length = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return length;
+    }
+
+    private static final class ReleasingOutputMessage implements ReactiveHttpOutputMessage {
+        private final DataBufferFactory bufferFactory;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private ReleasingOutputMessage(DataBufferFactory bufferFactory) {
+            this.bufferFactory = bufferFactory;
+        }
+
+        @Override
+        public DataBufferFactory bufferFactory() {
+            return bufferFactory;
+        }
+
+        @Override
+        public void beforeCommit(Supplier<? extends Mono<Void>> action) {
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            return Flux.from(body).doOnNext(DataBufferUtils::release).then();
+        }
+
+        @Override
+        public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+            return Flux.from(body).concatMap(Flux::from).doOnNext(DataBufferUtils::release).then();
+        }
+
+        @Override
+        public Mono<Void> setComplete() {
+            return Mono.empty();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.client.BlockingBankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.config.CancelProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.HttpClientProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.PendingCancelRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CollectEngineBenchmark {
+
+    private static final Duration COLLECT_LATENCY = Duration.ofMillis(5);
+    private static final int PENDING_COLLECTS_PER_ORDER = 5;
+
+    @Param({"1000", "10000"})
+    int orders;
+
+    private CollectScheduler collectScheduler;
+    private VirtualThreadCollectSource virtualThreadCollectSource;
+    private final AtomicInteger batch = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CollectProperties collectProperties = CollectProperties.builder()
+                .interval(Duration.ofMillis(10))
+                .orderTimeout(Duration.ofMinutes(1))
+                .tick(Duration.ofMillis(1))
+                .wheelSize(512)
+                .engine(CollectProperties.Engine.REACTOR)
+                .build();
+        HttpClientProperties httpClientProperties = HttpClientProperties.builder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .authTimeout(Duration.ofSeconds(2))
+                .collectTimeout(Duration.ofSeconds(2))
+                .cancelTimeout(Duration.ofSeconds(2))
+                .build();
+        CollectPollingPolicy collectPollingPolicy = new CollectPollingPolicy(collectProperties);
+        StubBankIdClient bankIdClient = new StubBankIdClient(httpClientProperties);
+        OrderCancellationQueue orderCancellationQueue = new OrderCancellationQueue(bankIdClient, new StubPendingCancelRepository(), CancelProperties.builder()
+                .queueCapacity(1024)
+                .batchSize(32)
+                .batchWindow(Duration.ofMillis(100))
+                .concurrency(8)
+                .disconnectGracePeriod(Duration.ofSeconds(10))
+                .build(), new SimpleMeterRegistry());
+        collectScheduler = new CollectScheduler(bankIdClient, collectProperties, collectPollingPolicy, orderCancellationQueue,
+                new SimpleMeterRegistry());
+        virtualThreadCollectSource = new VirtualThreadCollectSource(new StubBlockingBankIdClient(httpClientProperties), collectProperties,
+                collectPollingPolicy, orderCancellationQueue, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        collectScheduler.destroy();
+        virtualThreadCollectSource.destroy();
+    }
+
+    @Benchmark
+    public long reactorEngine() {
+        return pollOrders(collectScheduler);
+    }
+
+    @Benchmark
+    public long virtualThreadEngine() {
+        return pollOrders(virtualThreadCollectSource);
+    }
+
+    private long pollOrders(CollectSource collectSource) {
+        String prefix = "order-%d-".formatted(batch.incrementAndGet());
+        long startedAtMillis = System.currentTimeMillis();
+        return Flux.range(0, orders)
+                .flatMap(order -> collectSource.schedule(prefix + order, UseCase.SAME_DEVICE, startedAtMillis).count(), orders)
+                .reduce(0L, Long::sum)
+                .block();
+    }
+
+    private static CollectResponse collectResponse(String orderReference, Map<String, AtomicInteger> collects) {
+        int collect = collects.computeIfAbsent(orderReference, _ -> new AtomicInteger()).getAndIncrement();
+        if (collect < PENDING_COLLECTS_PER_ORDER) {
+            return new CollectResponse(orderReference, CollectResponse.Status.PENDING, "outstandingTransaction", null);
+        }
+        collects.remove(orderReference);
+        return new CollectResponse(orderReference, CollectResponse.Status.FAILED, "userCancel", null);
+    }
+
+    private static final class StubBankIdClient extends BankIdClient {
+        private final Map<String, AtomicInteger> collects = new ConcurrentHashMap<>();
+
+        private StubBankIdClient(HttpClientProperties httpClientProperties) {
+            super(null, httpClientProperties, null, null, null);
+        }
+
+        @Override
+        public Mono<CollectResponse> collect(String orderReference, Duration budget) {
+            return Mono.delay(COLLECT_LATENCY).map(_ -> collectResponse(orderReference, collects));
+        }
+    }
+
+    private static final class StubBlockingBankIdClient extends BlockingBankIdClient {
+        private final Map<String, AtomicInteger> collects = new ConcurrentHashMap<>();
+
+        private StubBlockingBankIdClient(HttpClientProperties httpClientProperties) {
+            super(null, httpClientProperties, null, null);
+        }
+
+        @Override
+        public CollectResponse collect(String orderReference, Duration budget) throws InterruptedException {
+            Thread.sleep(COLLECT_LATENCY);
+            return collectResponse(orderReference, collects);
+        }
+    }
+
+    private static final class StubPendingCancelRepository extends PendingCancelRepository {
+        private StubPendingCancelRepository() {
+            super(null);
+        }
+
+        @Override
+        public Mono<Boolean> mark(String orderReference, String token, Duration ttl) {
+            return Mono.just(true);
+        }
+
+        @Override
+        public Mono<Boolean> confirm(String orderReference, String token) {
+            return Mono.just(true);
+        }
+
+        @Override
+        public Mono<Boolean> revoke(String orderReference) {
+            return Mono.just(false);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.CompletedAuthentication;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderEventStreamBenchmark {
+
+    private static final OrderSession ORDER_SESSION = new OrderSession("handle", "orderRef", UseCase.SAME_DEVICE, "192.168.1.1",
+            "autoStartToken", null, null, 0L, AuthenticationStatus.PENDING);
+    private static final Flux<AuthenticationEvent> LIFECYCLE = Flux.just(
+            AuthenticationEvent.pending("0", "autoStartToken", "outstandingTransaction"),
+            AuthenticationEvent.pending("1", "autoStartToken", "outstandingTransaction"),
+            AuthenticationEvent.pending("2", "autoStartToken", "userSign"),
+            AuthenticationEvent.complete("3", new CompletedAuthentication("orderRef", "190001010101")));
+
+    private final Mono<OrderSession> orderSession = Mono.just(ORDER_SESSION);
+    private final Flux<AuthenticationEvent> pending = Sinks.many().multicast().<AuthenticationEvent>directBestEffort().asFlux();
+
+    @Benchmark
+    public void operatorChainLifecycle(Blackhole blackhole) {
+        operatorChain(LIFECYCLE).subscribe(new ConsumingSubscriber(blackhole));
+    }
+
+    @Benchmark
+    public void orderEventStreamLifecycle(Blackhole blackhole) {
+        orderEventStream(LIFECYCLE).subscribe(new ConsumingSubscriber(blackhole));
+    }
+
+    @Benchmark
+    public void operatorChainPendingSubscription(Blackhole blackhole) {
+        ConsumingSubscriber subscriber = new ConsumingSubscriber(blackhole);
+        operatorChain(pending).subscribe(subscriber);
+        subscriber.dispose();
+    }
+
+    @Benchmark
+    public void orderEventStreamPendingSubscription(Blackhole blackhole) {
+        ConsumingSubscriber subscriber = new ConsumingSubscriber(blackhole);
+        orderEventStream(pending).subscribe(subscriber);
+        subscriber.dispose();
+    }
+
+    private Flux<AuthenticationEvent> operatorChain(Flux<AuthenticationEvent> authenticationEvents) {
+        return orderSession
+                .flatMapMany(session -> authenticationEvents
+                        .map(authenticationEvent -> authenticationEvent.withHandle(session.handle())))
+                .doOnError(throwable -> !(throwable instanceof AdmissionRejectedException), _ -> {
+                })
+                .onErrorReturn(throwable -> !(throwable instanceof AdmissionRejectedException), AuthenticationEvent.error())
+                .delayUntil(OrderEventStreamBenchmark::persist)
+                .delayUntil(OrderEventStreamBenchmark::persist)
+                .takeUntil(AuthenticationEvent::isTerminal);
+    }
+
+    private Flux<AuthenticationEvent> orderEventStream(Flux<AuthenticationEvent> authenticationEvents) {
+        return new OrderEventStream(orderSession, _ -> authenticationEvents,
+                authenticationEvent -> persist(authenticationEvent).then(persist(authenticationEvent)), false);
+    }
+
+    private static Mono<Void> persist(AuthenticationEvent authenticationEvent) {
+        return Mono.empty();
+    }
+
+    private static final class ConsumingSubscriber extends BaseSubscriber<AuthenticationEvent> {
+        private final Blackhole blackhole;
+
+        private ConsumingSubscriber(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        protected void hookOnNext(AuthenticationEvent authenticationEvent) {
+            blackhole.consume(authenticationEvent);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wonderland.authentication.swedish.bankid.gateway.config.QrProperties;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QrCodeGeneratorBenchmark {
+
+    private static final String QR_START_TOKEN = "131daac9-16c6-4618-beb0-365768f37289";
+    private static final String QR_START_SECRET = "0ce68cf7-7d35-4386-9bad-46ee426cadca";
+    private static final int ORDER_SECONDS = 120;
+
+    @Param({"1", "10"})
+    int precomputedFrames;
+
+    private Mac sharedMac;
+    private QrCodeGenerator qrCodeGenerator;
+    private QrCodeGenerator.QrCodes qrCodes;
+    private long seconds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        sharedMac = Mac.getInstance("HmacSHA256");
+        qrCodeGenerator = new QrCodeGenerator(QrProperties.builder().precomputedFrames(precomputedFrames).build());
+    }
+
+    @Setup(Level.Iteration)
+    public void newOrder() {
+        qrCodes = qrCodeGenerator.forOrder(QR_START_TOKEN, QR_START_SECRET);
+    }
+
+    @Benchmark
+    public String formatWithBigInteger() throws GeneralSecurityException {
+        String sequence = String.valueOf(nextSeconds());
+        sharedMac.init(new SecretKeySpec(QR_START_SECRET.getBytes(StandardCharsets.US_ASCII), "HmacSHA256"));
+        sharedMac.update(sequence.getBytes(StandardCharsets.US_ASCII));
+        String qrAuthCode = String.format("%064x", new BigInteger(1, sharedMac.doFinal()));
+        return String.join(".", "bankid", QR_START_TOKEN, sequence, qrAuthCode);
+    }
+
+    @Benchmark
+    public String qrCodeGenerator() {
+        return qrCodes.frame(nextSeconds());
+    }
+
+    private long nextSeconds() {
+        seconds = (seconds + 1) % ORDER_SECONDS;
+        return seconds;
+    }
+}
@@ -0,0 +1,177 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.ResilienceProperties;
+
+import java.io.IOException;
+import java.time.Duration;
+
+@Slf4j
+@Component
+public class BankIdCircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+    private final boolean[] outcomes;
+    private final Counter rejected;
+    private volatile State state = State.CLOSED;
+    private long calls;
+    private int failures;
+    private long openUntilNanos;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public BankIdCircuitBreaker(ResilienceProperties resilienceProperties, MeterRegistry meterRegistry) {
+        this.failureRateThreshold = resilienceProperties.getFailureRateThreshold();
+        this.minimumCalls = resilienceProperties.getMinimumCalls();
+        this.openDurationNanos = resilienceProperties.getOpenDuration().toNanos();
+        this.halfOpenCalls = resilienceProperties.getHalfOpenCalls();
+        this.outcomes = new boolean[resilienceProperties.getSlidingWindowSize()];
+        this.rejected = Counter.builder("bankid.circuit.rejected")
+                .description("BankID calls rejected without being sent because the circuit was open")
+                .register(meterRegistry);
+        Gauge.builder("bankid.circuit.state", this, circuitBreaker -> circuitBreaker.state().ordinal())
+                .description("0 closed, 1 open, 2 half open")
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> guard(Mono<T> call) {
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                return Mono.error(new CircuitOpenException(retryAfter()));
+            }
+            return call
+                    .doOnSuccess(_ -> record(false))
+                    .doOnError(throwable -> record(isTransient(throwable)))
+                    .doOnCancel(this::release);
+        });
+    }
+
+    public void acquire() {
+        if (!tryAcquire()) {
+            throw new CircuitOpenException(retryAfter());
+        }
+    }
+
+    public void onSuccess() {
+        record(false);
+    }
+
+    public void onError(Throwable throwable) {
+        record(isTransient(throwable));
+    }
+
+    public void onAbandoned() {
+        release();
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public static boolean isTransient(Throwable throwable) {
+        return switch (throwable) {
+            case WebClientRequestException _ -> true;
+            case WebClientResponseException e -> isTransient(e.getStatusCode().value());
+            case RestClientResponseException e -> isTransient(e.getStatusCode().value());
+            case IOException _ -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isTransient(int status) {
+        return status >= 500 || status == HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    private boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openUntilNanos >= 0) {
+                transition(State.HALF_OPEN);
+                halfOpenPermits = halfOpenCalls;
+                halfOpenSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+                halfOpenPermits--;
+                return true;
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+        }
+        rejected.increment();
+        return false;
+    }
+
+    private synchronized Duration retryAfter() {
+        return Duration.ofNanos(Math.max(openUntilNanos - System.nanoTime(), 0));
+    }
+
+    private synchronized void release() {
+        if (state == State.HALF_OPEN && halfOpenPermits < halfOpenCalls - halfOpenSuccesses) {
+            halfOpenPermits++;
+        }
+    }
+
+    private synchronized void record(boolean failure) {
+        switch (state) {
+            case OPEN -> {
+            }
+            case HALF_OPEN -> {
+                if (failure) {
+                    open();
+                } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                    transition(State.CLOSED);
+                    calls = 0;
+                    failures = 0;
+                }
+            }
+            case CLOSED -> {
+                int slot = (int) (calls % outcomes.length);
+                if (calls >= outcomes.length && outcomes[slot]) {
+                    failures--;
+                }
+                outcomes[slot] = failure;
+                if (failure) {
+                    failures++;
+                }
+                calls++;
+                long window = Math.min(calls, outcomes.length);
+                if (window >= minimumCalls && failures * 100L >= failureRateThreshold * window) {
+                    open();
+                }
+            }
+        }
+    }
+
+    private void open() {
+        openUntilNanos = System.nanoTime() + openDurationNanos;
+        transition(State.OPEN);
+    }
+
+    private void transition(State next) {
+        if (state != next) {
+            log.warn("BankID circuit {} -> {}", state, next);
+            state = next;
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package wonderland.authentication.swedish.bankid.gateway.client;
 
+import io.netty.handler.timeout.ReadTimeoutException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.SignalType;
+import reactor.netty.http.client.HttpClientRequest;
+import wonderland.authentication.swedish.bankid.gateway.config.HttpClientProperties;
 import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationResponse;
 import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 @Component
@@ -20,43 +27,82 @@ public class BankIdClient {
     private static final String AUTH_TEXT_BASE64 = Base64.getEncoder().encodeToString("""
             *Login to Wonderland*
             """.getBytes(StandardCharsets.UTF_8));
+    private static final JsonBodyTemplate AUTH_BODY = JsonBodyTemplate.of("{\"endUserIp\":\"",
+            "\",\"userVisibleData\":\"%s\",\"userVisibleDataFormat\":\"simpleMarkdownV1\",\"returnRisk\":true}".formatted(AUTH_TEXT_BASE64));
+    private static final JsonBodyTemplate ORDER_REF_BODY = JsonBodyTemplate.of("{\"orderRef\":\"", "\"}");
 
     private final WebClient bankIdWebClient;
+    private final HttpClientProperties httpClientProperties;
+    private final BankIdCircuitBreaker circuitBreaker;
+    private final CollectHedging collectHedging;
+    private final EndpointRouter endpointRouter;
 
-    public BankIdClient(WebClient bankIdWebClient) {
+    public BankIdClient(WebClient bankIdWebClient, HttpClientProperties httpClientProperties,
+                        BankIdCircuitBreaker circuitBreaker, CollectHedging collectHedging, EndpointRouter endpointRouter) {
         this.bankIdWebClient = bankIdWebClient;
+        this.httpClientProperties = httpClientProperties;
+        this.circuitBreaker = circuitBreaker;
+        this.collectHedging = collectHedging;
+        this.endpointRouter = endpointRouter;
     }
 
     public Mono<AuthenticationResponse> auth(String endUserIp) {
-        return bankIdWebClient.post()
-                .uri("/rp/v6.0/auth")
-                .contentType(MediaType.APPLICATION_JSON)
-                .accept(MediaType.APPLICATION_JSON)
-                .bodyValue("""
-                        {
-                            "endUserIp": "%s",
-                            "userVisibleData": "%s",
-                            "userVisibleDataFormat": "simpleMarkdownV1",
-                            "returnRisk": true
-                        }
-                        """.formatted(endUserIp, AUTH_TEXT_BASE64))
-                .retrieve()
-                .bodyToMono(AuthenticationResponse.class)
+        return circuitBreaker.guard(endpointRouter.route(null, endpoint -> bankIdWebClient.post()
+                        .uri(endpoint.authUri())
+                        .httpRequest(responseTimeout(httpClientProperties.getAuthTimeout()))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .body(AUTH_BODY.insert(endUserIp))
+                        .retrieve()
+                        .bodyToMono(AuthenticationResponse.class)
+                        .doOnNext(authenticationResponse -> endpointRouter.own(authenticationResponse.orderRef(), endpoint))))
                 .doOnNext(authenticationResponse -> log.info("Started auth {} for ip {}", authenticationResponse, endUserIp))
                 .doOnError(_ -> log.error("Failed to start auth for ip {}", endUserIp));
     }
 
     public Mono<CollectResponse> collect(String orderReference) {
-        return bankIdWebClient.post()
-                .uri("/rp/v6.0/collect")
-                .contentType(MediaType.APPLICATION_JSON)
-                .accept(MediaType.APPLICATION_JSON)
-                .bodyValue("""
-                        {"orderRef": "%s"}
-                        """.formatted(orderReference))
-                .retrieve()
-                .bodyToMono(CollectResponse.class)
+        return collect(orderReference, httpClientProperties.getCollectTimeout());
+    }
+
+    public Mono<CollectResponse> collect(String orderReference, Duration budget) {
+        Duration collectTimeout = httpClientProperties.getCollectTimeout();
+        return collectHedging.hedge(budget, remaining -> circuitBreaker.guard(endpointRouter.route(orderReference, endpoint -> bankIdWebClient.post()
+                        .uri(endpoint.collectUri())
+                        .httpRequest(responseTimeout(remaining.compareTo(collectTimeout) < 0 ? remaining : collectTimeout))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .body(ORDER_REF_BODY.insert(orderReference))
+                        .retrieve()
+                        .bodyToMono(CollectResponse.class))))
+                .doOnNext(collectResponse -> {
+                    if (collectResponse.status() != CollectResponse.Status.PENDING) {
+                        endpointRouter.release(orderReference);
+                    }
+                })
                 .log("BankIdClient.collect", Level.FINE, SignalType.ON_NEXT)
                 .log("BankIdClient.collect", Level.WARNING, SignalType.ON_ERROR);
     }
+
+    public Mono<Void> cancel(String orderReference) {
+        return circuitBreaker.guard(endpointRouter.route(orderReference, endpoint -> bankIdWebClient.post()
+                        .uri(endpoint.cancelUri())
+                        .httpRequest(responseTimeout(httpClientProperties.getCancelTimeout()))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .body(ORDER_REF_BODY.insert(orderReference))
+                        .retrieve()
+                        .toBodilessEntity()))
+                .doOnNext(_ -> log.info("Cancelled order reference {}", orderReference))
+                .doFinally(_ -> endpointRouter.release(orderReference))
+                .log("BankIdClient.cancel", Level.WARNING, SignalType.ON_ERROR)
+                .then();
+    }
+
+    public static boolean isTimeout(Throwable throwable) {
+        return throwable instanceof WebClientRequestException && throwable.getCause() instanceof ReadTimeoutException;
+    }
+
+    private static Consumer<ClientHttpRequest> responseTimeout(Duration timeout) {
+        return clientHttpRequest -> clientHttpRequest.<HttpClientRequest>getNativeRequest().responseTimeout(timeout);
+    }
 }
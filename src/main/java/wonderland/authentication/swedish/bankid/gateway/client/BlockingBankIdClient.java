@@ -0,0 +1,80 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import wonderland.authentication.swedish.bankid.gateway.config.HttpClientProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "bankid.collect", name = "engine", havingValue = "virtual-threads")
+public class BlockingBankIdClient {
+
+    private static final JsonBodyTemplate ORDER_REF_BODY = JsonBodyTemplate.of("{\"orderRef\":\"", "\"}");
+
+    private final HttpClient blockingBankIdHttpClient;
+    private final CollectResponseDecoder collectResponseDecoder = new CollectResponseDecoder();
+    private final Duration collectTimeout;
+    private final BankIdCircuitBreaker circuitBreaker;
+    private final EndpointRouter endpointRouter;
+
+    public BlockingBankIdClient(HttpClient blockingBankIdHttpClient, HttpClientProperties httpClientProperties,
+                                BankIdCircuitBreaker circuitBreaker, EndpointRouter endpointRouter) {
+        this.blockingBankIdHttpClient = blockingBankIdHttpClient;
+        this.collectTimeout = httpClientProperties.getCollectTimeout();
+        this.circuitBreaker = circuitBreaker;
+        this.endpointRouter = endpointRouter;
+    }
+
+    public CollectResponse collect(String orderReference, Duration budget) throws IOException, InterruptedException {
+        circuitBreaker.acquire();
+        EndpointRouter.Endpoint endpoint = endpointRouter.select(orderReference);
+        HttpRequest request = HttpRequest.newBuilder(endpoint.collectUri())
+                .timeout(budget.compareTo(collectTimeout) < 0 ? budget : collectTimeout)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(ORDER_REF_BODY.bytes(orderReference)))
+                .build();
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response;
+        try {
+            response = blockingBankIdHttpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException | RuntimeException e) {
+            endpointRouter.complete(endpoint, start, e);
+            circuitBreaker.onError(e);
+            throw e;
+        } catch (InterruptedException e) {
+            endpointRouter.abandon(endpoint);
+            circuitBreaker.onAbandoned();
+            throw e;
+        }
+        HttpStatusCode statusCode = HttpStatusCode.valueOf(response.statusCode());
+        if (statusCode.isError()) {
+            log.warn("Collect for order reference {} failed with status {}", orderReference, statusCode);
+            RestClientResponseException exception = new RestClientResponseException("Collect failed with status %s".formatted(statusCode),
+                    statusCode, "", null, response.body(), StandardCharsets.UTF_8);
+            endpointRouter.complete(endpoint, start, exception);
+            circuitBreaker.onError(exception);
+            throw exception;
+        }
+        endpointRouter.complete(endpoint, start, null);
+        circuitBreaker.onSuccess();
+        CollectResponse collectResponse = collectResponseDecoder.decode(response.body());
+        if (collectResponse.status() != CollectResponse.Status.PENDING) {
+            endpointRouter.release(orderReference);
+        }
+        return collectResponse;
+    }
+}
@@ -0,0 +1,16 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class CircuitOpenException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public CircuitOpenException(Duration retryAfter) {
+        super("BankID circuit is open, retry after %s".formatted(retryAfter));
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,111 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.ResilienceProperties;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+@Component
+public class CollectHedging {
+
+    private static final int SAMPLES = 256;
+    private static final int MINIMUM_SAMPLES = 32;
+    private static final int RECOMPUTE_EVERY = 16;
+    private static final long TOKEN = 1000;
+    private static final long MAX_TOKENS = 10 * TOKEN;
+
+    private final boolean enabled;
+    private final long minDelayNanos;
+    private final double jitter;
+    private final long tokensPerCollect;
+    private final long[] latencies = new long[SAMPLES];
+    private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+    private final Counter hedged;
+    private final Counter throttled;
+    private long recorded;
+    private volatile long p95Nanos;
+
+    public CollectHedging(ResilienceProperties resilienceProperties, MeterRegistry meterRegistry) {
+        this.enabled = resilienceProperties.getHedgeCollect();
+        this.minDelayNanos = resilienceProperties.getHedgeMinDelay().toNanos();
+        this.jitter = resilienceProperties.getHedgeJitter();
+        this.tokensPerCollect = Math.round(resilienceProperties.getHedgeBudget() * TOKEN);
+        this.hedged = Counter.builder("bankid.collect.hedged").register(meterRegistry);
+        this.throttled = Counter.builder("bankid.collect.hedge.throttled")
+                .description("Hedged collects not sent because the hedge budget was spent")
+                .register(meterRegistry);
+        Gauge.builder("bankid.collect.latency.p95", this, collectHedging -> collectHedging.p95Nanos / 1_000_000d)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> hedge(Duration budget, Function<Duration, Mono<T>> attempt) {
+        if (!enabled) {
+            return attempt.apply(budget);
+        }
+        return Mono.defer(() -> {
+            earnToken();
+            Mono<T> primary = timed(attempt.apply(budget));
+            long delayNanos = hedgeDelayNanos();
+            if (delayNanos == 0 || delayNanos >= budget.toNanos()) {
+                return primary;
+            }
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Mono<T> hedge = Mono.delay(Duration.ofNanos(delayNanos))
+                    .flatMap(_ -> {
+                        if (!trySpendToken()) {
+                            throttled.increment();
+                            return Mono.<T>empty();
+                        }
+                        hedged.increment();
+                        return timed(attempt.apply(budget.minusNanos(delayNanos)))
+                                .onErrorResume(_ -> Mono.empty());
+                    });
+            return Mono.firstWithValue(primary.doOnError(primaryError::set), hedge)
+                    .onErrorResume(NoSuchElementException.class,
+                            _ -> primaryError.get() == null ? Mono.empty() : Mono.error(primaryError.get()));
+        });
+    }
+
+    long hedgeDelayNanos() {
+        long p95 = p95Nanos;
+        if (p95 == 0) {
+            return 0;
+        }
+        return (long) (Math.max(p95, minDelayNanos) * (1 + jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    synchronized void record(long latencyNanos) {
+        latencies[(int) (recorded++ % SAMPLES)] = latencyNanos;
+        if (recorded >= MINIMUM_SAMPLES && recorded % RECOMPUTE_EVERY == 0) {
+            long[] window = Arrays.copyOf(latencies, (int) Math.min(recorded, SAMPLES));
+            Arrays.sort(window);
+            p95Nanos = window[(int) Math.ceil(window.length * 0.95) - 1];
+        }
+    }
+
+    private <T> Mono<T> timed(Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnSuccess(_ -> record(System.nanoTime() - start));
+        });
+    }
+
+    private void earnToken() {
+        tokens.getAndUpdate(current -> Math.min(current + tokensPerCollect, MAX_TOKENS));
+    }
+
+    private boolean trySpendToken() {
+        return tokens.getAndUpdate(current -> current >= TOKEN ? current - TOKEN : current) >= TOKEN;
+    }
+}
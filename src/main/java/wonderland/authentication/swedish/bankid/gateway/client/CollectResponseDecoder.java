@@ -0,0 +1,128 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractDataBufferDecoder;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeType;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.HintCode;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class CollectResponseDecoder extends AbstractDataBufferDecoder<CollectResponse> {
+
+    private static final JsonMapper JSON_MAPPER = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+    private static final CollectResponse.Status[] STATUSES = CollectResponse.Status.values();
+    private static final HintCode[] HINT_CODES = HintCode.values();
+
+    public CollectResponseDecoder() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    public boolean canDecode(ResolvableType elementType, MimeType mimeType) {
+        return elementType.toClass() == CollectResponse.class && super.canDecode(elementType, mimeType);
+    }
+
+    @Override
+    public CollectResponse decode(DataBuffer buffer, ResolvableType targetType, MimeType mimeType, Map<String, Object> hints) {
+        try (JsonParser parser = JSON_MAPPER.createParser(buffer.asInputStream())) {
+            return read(parser);
+        } catch (IOException e) {
+            throw new DecodingException("Failed to decode collect response", e);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    public CollectResponse decode(byte[] json) {
+        try (JsonParser parser = JSON_MAPPER.createParser(json)) {
+            return read(parser);
+        } catch (IOException e) {
+            throw new DecodingException("Failed to decode collect response", e);
+        }
+    }
+
+    private static CollectResponse read(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new DecodingException("Collect response is not a JSON object");
+        }
+        String orderRef = null;
+        CollectResponse.Status status = null;
+        String hintCode = null;
+        CollectResponse.CompletionData completionData = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "orderRef" -> orderRef = parser.getValueAsString();
+                case "status" -> status = status(parser);
+                case "hintCode" -> hintCode = hintCode(parser);
+                case "completionData" -> {
+                    if (status == null || status == CollectResponse.Status.COMPLETE) {
+                        completionData = parser.readValueAs(CollectResponse.CompletionData.class);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (status == null) {
+            throw new DecodingException("Collect response has no status");
+        }
+        return new CollectResponse(orderRef, status, hintCode, completionData);
+    }
+
+    private static CollectResponse.Status status(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            for (CollectResponse.Status status : STATUSES) {
+                if (textEqualsIgnoreCase(parser, status.name())) {
+                    return status;
+                }
+            }
+        }
+        throw new DecodingException("Unknown collect status %s".formatted(parser.getText()));
+    }
+
+    private static String hintCode(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new DecodingException("Hint code is not a string: %s".formatted(parser.getText()));
+        }
+        for (HintCode hintCode : HINT_CODES) {
+            if (textEqualsIgnoreCase(parser, hintCode.code())) {
+                return hintCode.code();
+            }
+        }
+        return parser.getText();
+    }
+
+    private static boolean textEqualsIgnoreCase(JsonParser parser, String candidate) throws IOException {
+        int length = parser.getTextLength();
+        if (length != candidate.length()) {
+            return false;
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        for (int i = 0; i < length; i++) {
+            char c = text[offset + i];
+            char expected = candidate.charAt(i);
+            if (c != expected && Character.toLowerCase(c) != Character.toLowerCase(expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,245 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.BankIdProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.RoutingProperties;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@Slf4j
+@Component
+public class EndpointRouter {
+
+    private final List<Endpoint> endpoints;
+    private final double ewmaWeight;
+    private final int consecutiveFailures;
+    private final long ejectionNanos;
+    private final int maxEjected;
+    private final boolean stickyOrders;
+    private final Duration stickyOrderTtl;
+    private final Map<String, Endpoint> orderOwners = new ConcurrentHashMap<>();
+    private final AtomicInteger ejected = new AtomicInteger();
+
+    public EndpointRouter(BankIdProperties bankIdProperties, RoutingProperties routingProperties, MeterRegistry meterRegistry) {
+        this.ewmaWeight = routingProperties.getEwmaWeight();
+        this.consecutiveFailures = routingProperties.getConsecutiveFailures();
+        this.ejectionNanos = routingProperties.getEjectionDuration().toNanos();
+        this.stickyOrders = routingProperties.getStickyOrders();
+        this.stickyOrderTtl = routingProperties.getStickyOrderTtl();
+        this.endpoints = bankIdProperties.endpoints().stream()
+                .map(baseUrl -> new Endpoint(baseUrl, meterRegistry))
+                .toList();
+        this.maxEjected = endpoints.size() * routingProperties.getMaxEjectedPercent() / 100;
+        Gauge.builder("bankid.endpoint.orders.owned", orderOwners, Map::size)
+                .description("Orders pinned to the endpoint that started them")
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> route(String orderReference, Function<Endpoint, Mono<T>> call) {
+        return Mono.defer(() -> {
+            Endpoint endpoint = select(orderReference);
+            long start = System.nanoTime();
+            return call.apply(endpoint)
+                    .doOnSuccess(_ -> complete(endpoint, start, null))
+                    .doOnError(throwable -> complete(endpoint, start, throwable))
+                    .doOnCancel(() -> abandon(endpoint));
+        });
+    }
+
+    public Endpoint select(String orderReference) {
+        Endpoint owner = orderReference == null || !stickyOrders ? null : orderOwners.get(orderReference);
+        return acquire(owner != null && isAvailable(owner, System.nanoTime()) ? owner : leastLoaded());
+    }
+
+    Endpoint acquire(Endpoint endpoint) {
+        endpoint.inFlight.incrementAndGet();
+        return endpoint;
+    }
+
+    public void complete(Endpoint endpoint, long startNanos, Throwable throwable) {
+        endpoint.inFlight.decrementAndGet();
+        long now = System.nanoTime();
+        if (throwable != null && BankIdCircuitBreaker.isTransient(throwable)) {
+            endpoint.penalize(now - startNanos);
+            if (endpoint.failures.incrementAndGet() >= consecutiveFailures) {
+                eject(endpoint, now);
+            }
+        } else {
+            endpoint.record(now - startNanos, ewmaWeight);
+            endpoint.failures.set(0);
+        }
+    }
+
+    public void abandon(Endpoint endpoint) {
+        endpoint.inFlight.decrementAndGet();
+    }
+
+    public void own(String orderReference, Endpoint endpoint) {
+        if (stickyOrders && endpoints.size() > 1) {
+            orderOwners.put(orderReference, endpoint);
+            Mono.delay(stickyOrderTtl).subscribe(_ -> orderOwners.remove(orderReference, endpoint));
+        }
+    }
+
+    public void release(String orderReference) {
+        if (stickyOrders) {
+            orderOwners.remove(orderReference);
+        }
+    }
+
+    public List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    private Endpoint leastLoaded() {
+        int size = endpoints.size();
+        if (size == 1) {
+            return endpoints.getFirst();
+        }
+        long now = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = endpoints.get(first);
+        Endpoint b = endpoints.get(second);
+        boolean aAvailable = isAvailable(a, now);
+        boolean bAvailable = isAvailable(b, now);
+        if (aAvailable != bAvailable) {
+            return aAvailable ? a : b;
+        }
+        if (!aAvailable) {
+            for (Endpoint endpoint : endpoints) {
+                if (isAvailable(endpoint, now)) {
+                    return endpoint;
+                }
+            }
+        }
+        return a.cost() <= b.cost() ? a : b;
+    }
+
+    private boolean isAvailable(Endpoint endpoint, long now) {
+        long ejectedUntil = endpoint.ejectedUntilNanos;
+        if (ejectedUntil == 0) {
+            return true;
+        }
+        if (now - ejectedUntil >= 0) {
+            readmit(endpoint);
+            return true;
+        }
+        return false;
+    }
+
+    private void eject(Endpoint endpoint, long now) {
+        synchronized (endpoint) {
+            if (endpoint.ejectedUntilNanos != 0) {
+                return;
+            }
+            if (ejected.incrementAndGet() > maxEjected) {
+                ejected.decrementAndGet();
+                return;
+            }
+            endpoint.ejectedUntilNanos = now + ejectionNanos;
+        }
+        endpoint.ejections.increment();
+        log.warn("Ejected BankID endpoint {} after {} consecutive failures", endpoint.baseUrl, endpoint.failures.get());
+    }
+
+    private void readmit(Endpoint endpoint) {
+        synchronized (endpoint) {
+            if (endpoint.ejectedUntilNanos == 0) {
+                return;
+            }
+            endpoint.ejectedUntilNanos = 0;
+            endpoint.failures.set(0);
+            endpoint.ewmaNanos = 0;
+            ejected.decrementAndGet();
+        }
+        log.info("Readmitted BankID endpoint {}", endpoint.baseUrl);
+    }
+
+    public static final class Endpoint {
+        private final URI baseUrl;
+        private final URI authUri;
+        private final URI collectUri;
+        private final URI cancelUri;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final Counter ejections;
+        private volatile double ewmaNanos;
+        private volatile long ejectedUntilNanos;
+
+        private Endpoint(URI baseUrl, MeterRegistry meterRegistry) {
+            this.baseUrl = baseUrl;
+            this.authUri = resolve(baseUrl, "/rp/v6.0/auth");
+            this.collectUri = resolve(baseUrl, "/rp/v6.0/collect");
+            this.cancelUri = resolve(baseUrl, "/rp/v6.0/cancel");
+            this.ejections = Counter.builder("bankid.endpoint.ejections")
+                    .tag("endpoint", baseUrl.getAuthority())
+                    .register(meterRegistry);
+            Gauge.builder("bankid.endpoint.latency.ewma", this, endpoint -> endpoint.ewmaNanos / 1_000_000d)
+                    .tag("endpoint", baseUrl.getAuthority())
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            Gauge.builder("bankid.endpoint.ejected", this, endpoint -> endpoint.ejectedUntilNanos == 0 ? 0 : 1)
+                    .tag("endpoint", baseUrl.getAuthority())
+                    .register(meterRegistry);
+        }
+
+        public URI baseUrl() {
+            return baseUrl;
+        }
+
+        public URI authUri() {
+            return authUri;
+        }
+
+        public URI collectUri() {
+            return collectUri;
+        }
+
+        public URI cancelUri() {
+            return cancelUri;
+        }
+
+        public double ewmaMillis() {
+            return ewmaNanos / 1_000_000d;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntilNanos != 0;
+        }
+
+        private static URI resolve(URI baseUrl, String path) {
+            String base = baseUrl.toString();
+            return URI.create((base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + path);
+        }
+
+        private synchronized void record(long latencyNanos, double weight) {
+            double current = ewmaNanos;
+            ewmaNanos = latencyNanos > current ? latencyNanos : current + weight * (latencyNanos - current);
+        }
+
+        private synchronized void penalize(long latencyNanos) {
+            ewmaNanos = 2 * Math.max(ewmaNanos, latencyNanos);
+        }
+
+        private double cost() {
+            return ewmaNanos * (inFlight.get() + 1);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class JsonBodyTemplate {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    private JsonBodyTemplate(byte[] prefix, byte[] suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    static JsonBodyTemplate of(String prefix, String suffix) {
+        return new JsonBodyTemplate(prefix.getBytes(StandardCharsets.UTF_8), suffix.getBytes(StandardCharsets.UTF_8));
+    }
+
+    BodyInserter<String, ReactiveHttpOutputMessage> insert(String value) {
+        return (message, _) -> {
+            DataBuffer buffer = encode(value, message.bufferFactory());
+            message.getHeaders().setContentLength(buffer.readableByteCount());
+            return message.writeWith(Mono.just(buffer));
+        };
+    }
+
+    DataBuffer encode(String value, DataBufferFactory bufferFactory) {
+        if (isPlainAscii(value)) {
+            DataBuffer buffer = bufferFactory.allocateBuffer(prefix.length + value.length() + suffix.length);
+            return buffer.write(prefix)
+                    .write(value, StandardCharsets.US_ASCII)
+                    .write(suffix);
+        }
+        byte[] escaped = escape(value).getBytes(StandardCharsets.UTF_8);
+        DataBuffer buffer = bufferFactory.allocateBuffer(prefix.length + escaped.length + suffix.length);
+        return buffer.write(prefix)
+                .write(escaped)
+                .write(suffix);
+    }
+
+    byte[] bytes(String value) {
+        byte[] inserted = (isPlainAscii(value) ? value : escape(value)).getBytes(StandardCharsets.UTF_8);
+        byte[] body = Arrays.copyOf(prefix, prefix.length + inserted.length + suffix.length);
+        System.arraycopy(inserted, 0, body, prefix.length, inserted.length);
+        System.arraycopy(suffix, 0, body, prefix.length + inserted.length, suffix.length);
+        return body;
+    }
+
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                case '\b' -> escaped.append("\\b");
+                case '\f' -> escaped.append("\\f");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '\t' -> escaped.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        escaped.append("\\u00").append(HEX_DIGITS[c >> 4 & 0xf]).append(HEX_DIGITS[c & 0xf]);
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static boolean isPlainAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
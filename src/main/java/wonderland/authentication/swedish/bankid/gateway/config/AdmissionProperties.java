@@ -0,0 +1,30 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.admission")
+@Getter
+@Builder
+public class AdmissionProperties {
+    @NotNull
+    @Positive
+    Integer burst;
+    @NotNull
+    Duration refillPeriod;
+    @NotNull
+    @Positive
+    Integer stripes;
+    @NotNull
+    @Positive
+    Integer maxInFlightOrders;
+    @NotNull
+    Duration capacityRetryAfter;
+}
@@ -9,6 +9,9 @@ import org.springframework.validation.annotation.Validated;
 
 import java.net.URI;
 import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 @Validated
 @ConfigurationProperties(prefix = "bankid")
@@ -17,6 +20,7 @@ import java.time.Duration;
 public class BankIdProperties {
     @NotNull
     URI baseUrl;
+    List<URI> additionalBaseUrls;
     @NotBlank
     String trustStore;
     @NotBlank
@@ -25,4 +29,13 @@ public class BankIdProperties {
     String keyStoreCertificate;
     @NotNull
     Duration nationalIdCacheTTL;
+
+    public List<URI> endpoints() {
+        Set<URI> endpoints = new LinkedHashSet<>();
+        endpoints.add(baseUrl);
+        if (additionalBaseUrls != null) {
+            endpoints.addAll(additionalBaseUrls);
+        }
+        return List.copyOf(endpoints);
+    }
 }
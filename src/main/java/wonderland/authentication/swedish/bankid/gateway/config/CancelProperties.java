@@ -0,0 +1,30 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.cancel")
+@Getter
+@Builder
+public class CancelProperties {
+    @NotNull
+    @Positive
+    Integer queueCapacity;
+    @NotNull
+    @Positive
+    Integer batchSize;
+    @NotNull
+    Duration batchWindow;
+    @NotNull
+    @Positive
+    Integer concurrency;
+    @NotNull
+    Duration disconnectGracePeriod;
+}
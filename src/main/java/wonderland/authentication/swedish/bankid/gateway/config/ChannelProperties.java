@@ -0,0 +1,18 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.channel")
+@Getter
+@Builder
+public class ChannelProperties {
+    @NotNull
+    @Positive
+    Integer maxOrdersPerChannel;
+}
@@ -0,0 +1,27 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.cluster")
+@Getter
+@Builder
+public class ClusterProperties {
+    @NotNull
+    Boolean enabled;
+    String nodeId;
+    @NotNull
+    Duration leaseTtl;
+    @NotNull
+    Duration heartbeatInterval;
+    @NotNull
+    @Positive
+    Integer virtualNodes;
+}
@@ -0,0 +1,37 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.Map;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.collect")
+@Getter
+@Builder
+public class CollectProperties {
+    @NotNull
+    Duration interval;
+    Map<UseCase, Duration> useCaseIntervals;
+    Map<UseCase, Map<String, Duration>> hintCodeIntervals;
+    @NotNull
+    Duration orderTimeout;
+    @NotNull
+    Duration tick;
+    @NotNull
+    @Positive
+    Integer wheelSize;
+    @NotNull
+    Engine engine;
+
+    public enum Engine {
+        REACTOR,
+        VIRTUAL_THREADS
+    }
+}
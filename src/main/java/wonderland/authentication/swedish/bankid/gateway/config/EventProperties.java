@@ -0,0 +1,20 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.events")
+@Getter
+@Builder
+public class EventProperties {
+    @NotNull
+    Boolean changesOnly;
+    @NotNull
+    Duration heartbeatInterval;
+}
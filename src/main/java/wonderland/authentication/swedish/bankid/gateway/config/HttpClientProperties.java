@@ -0,0 +1,44 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.http")
+@Getter
+@Builder
+public class HttpClientProperties {
+    @NotNull
+    Duration connectTimeout;
+    @NotNull
+    Duration authTimeout;
+    @NotNull
+    Duration collectTimeout;
+    @NotNull
+    Duration cancelTimeout;
+    @NotNull
+    @Positive
+    Integer maxConnections;
+    @NotNull
+    @Positive
+    Integer pendingAcquireMaxCount;
+    @NotNull
+    Duration pendingAcquireTimeout;
+    @NotNull
+    Duration maxIdleTime;
+    @NotNull
+    Duration maxLifeTime;
+    @NotNull
+    Duration evictInBackground;
+    @NotNull
+    Boolean http2;
+    @NotNull
+    @Positive
+    Integer http2MaxConcurrentStreams;
+}
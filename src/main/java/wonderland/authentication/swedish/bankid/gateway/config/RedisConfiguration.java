@@ -5,11 +5,14 @@ import io.lettuce.core.SocketOptions;
 import io.lettuce.core.SslOptions;
 import io.lettuce.core.TimeoutOptions;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
 
 import javax.net.ssl.TrustManagerFactory;
 import java.io.ByteArrayInputStream;
@@ -57,4 +60,10 @@ public class RedisConfiguration {
         config.setPassword(redisProperties.getPassword());
         return new LettuceConnectionFactory(config, lettuceClientConfiguration.build());
     }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "bankid.cluster", name = "enabled", havingValue = "true")
+    public ReactiveRedisMessageListenerContainer reactiveRedisMessageListenerContainer(ReactiveRedisConnectionFactory redisConnectionFactory) {
+        return new ReactiveRedisMessageListenerContainer(redisConnectionFactory);
+    }
 }
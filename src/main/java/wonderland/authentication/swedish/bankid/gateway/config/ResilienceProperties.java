@@ -0,0 +1,44 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.resilience")
+@Getter
+@Builder
+public class ResilienceProperties {
+    @NotNull
+    @Positive
+    @Max(100)
+    Integer failureRateThreshold;
+    @NotNull
+    @Positive
+    Integer slidingWindowSize;
+    @NotNull
+    @Positive
+    Integer minimumCalls;
+    @NotNull
+    Duration openDuration;
+    @NotNull
+    @Positive
+    Integer halfOpenCalls;
+    @NotNull
+    Boolean hedgeCollect;
+    @NotNull
+    Duration hedgeMinDelay;
+    @NotNull
+    @PositiveOrZero
+    Double hedgeJitter;
+    @NotNull
+    @Positive
+    Double hedgeBudget;
+}
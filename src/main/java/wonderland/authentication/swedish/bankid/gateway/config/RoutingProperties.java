@@ -0,0 +1,37 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.routing")
+@Getter
+@Builder
+public class RoutingProperties {
+    @NotNull
+    @Positive
+    @DecimalMax("1.0")
+    Double ewmaWeight;
+    @NotNull
+    @Positive
+    Integer consecutiveFailures;
+    @NotNull
+    Duration ejectionDuration;
+    @NotNull
+    @PositiveOrZero
+    @Max(100)
+    Integer maxEjectedPercent;
+    @NotNull
+    Boolean stickyOrders;
+    @NotNull
+    Duration stickyOrderTtl;
+}
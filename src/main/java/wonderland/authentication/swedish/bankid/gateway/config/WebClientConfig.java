@@ -1,29 +1,41 @@
 package wonderland.authentication.swedish.bankid.gateway.config;
 
 import io.netty.channel.ChannelOption;
-import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.timeout.ReadTimeoutHandler;
-import io.netty.handler.timeout.WriteTimeoutHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.Http11SslContextSpec;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.Http2AllocationStrategy;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.SslProvider.ProtocolSslContextSpec;
+import wonderland.authentication.swedish.bankid.gateway.client.CollectResponseDecoder;
 
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
+import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Base64;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Configuration
 public class WebClientConfig {
@@ -41,26 +53,52 @@ public class WebClientConfig {
         return keyFactory.generatePrivate(keySpec);
     }
 
-    @Bean
-    public ReactorClientHttpConnector defaultHttpConnector(BankIdProperties bankIdProperties) throws IOException, CertificateException, NoSuchAlgorithmException, InvalidKeySpecException {
+    private X509Certificate readCertificate(String certificate) throws CertificateException {
         CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
-        X509Certificate trustStoreCertificate = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(bankIdProperties.getTrustStore().getBytes(Charset.defaultCharset())));
-        X509Certificate keyStoreCertificate = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(bankIdProperties.getKeyStoreCertificate().getBytes(Charset.defaultCharset())));
+        return (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(certificate.getBytes(Charset.defaultCharset())));
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider bankIdConnectionProvider(HttpClientProperties httpClientProperties) {
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("bankid")
+                .pendingAcquireMaxCount(httpClientProperties.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(httpClientProperties.getPendingAcquireTimeout())
+                .maxIdleTime(httpClientProperties.getMaxIdleTime())
+                .maxLifeTime(httpClientProperties.getMaxLifeTime())
+                .evictInBackground(httpClientProperties.getEvictInBackground())
+                .metrics(true);
+        if (httpClientProperties.getHttp2()) {
+            builder.allocationStrategy(Http2AllocationStrategy.builder()
+                    .maxConnections(httpClientProperties.getMaxConnections())
+                    .maxConcurrentStreams(httpClientProperties.getHttp2MaxConcurrentStreams())
+                    .build());
+        } else {
+            builder.maxConnections(httpClientProperties.getMaxConnections());
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public ReactorClientHttpConnector defaultHttpConnector(BankIdProperties bankIdProperties, HttpClientProperties httpClientProperties,
+                                                           ConnectionProvider bankIdConnectionProvider) throws CertificateException, NoSuchAlgorithmException, InvalidKeySpecException {
+        X509Certificate trustStoreCertificate = readCertificate(bankIdProperties.getTrustStore());
+        X509Certificate keyStoreCertificate = readCertificate(bankIdProperties.getKeyStoreCertificate());
 
         PrivateKey privateKey = readPrivateKey(bankIdProperties.getKeyStorePrivateKey());
 
-        SslContext context = SslContextBuilder.forClient()
+        boolean http2 = httpClientProperties.getHttp2();
+        Consumer<SslContextBuilder> clientCertificates = builder -> builder
                 .keyManager(privateKey, keyStoreCertificate)
-                .trustManager(trustStoreCertificate)
-                .build();
+                .trustManager(trustStoreCertificate);
+        ProtocolSslContextSpec sslContextSpec = http2
+                ? Http2SslContextSpec.forClient().configure(clientCertificates)
+                : Http11SslContextSpec.forClient().configure(clientCertificates);
 
-        HttpClient httpClient = HttpClient.create().secure(t -> t.sslContext(context));
-
-        httpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 2_000);
-        httpClient.doOnConnected(connection -> connection
-                .addHandlerFirst(new ReadTimeoutHandler(2_000L, TimeUnit.MILLISECONDS))
-                .addHandlerFirst(new WriteTimeoutHandler(2_000L, TimeUnit.MILLISECONDS))
-        );
+        HttpClient httpClient = HttpClient.create(bankIdConnectionProvider)
+                .protocol(http2 ? new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11} : new HttpProtocol[]{HttpProtocol.HTTP11})
+                .secure(t -> t.sslContext(sslContextSpec))
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.toIntExact(httpClientProperties.getConnectTimeout().toMillis()))
+                .metrics(true, Function.identity());
         return new ReactorClientHttpConnector(httpClient);
     }
 
@@ -69,8 +107,36 @@ public class WebClientConfig {
         return WebClient.builder()
                 .baseUrl(bankIdProperties.getBaseUrl().toString())
                 .clientConnector(defaultHttpConnector)
-                .codecs(codec -> codec.defaultCodecs().maxInMemorySize(1024 * 1024))
+                .codecs(codec -> {
+                    codec.defaultCodecs().maxInMemorySize(1024 * 1024);
+                    codec.customCodecs().register(new CollectResponseDecoder());
+                })
                 .build();
     }
 
+    @Bean
+    @ConditionalOnProperty(prefix = "bankid.collect", name = "engine", havingValue = "virtual-threads")
+    public java.net.http.HttpClient blockingBankIdHttpClient(BankIdProperties bankIdProperties, HttpClientProperties httpClientProperties) throws GeneralSecurityException, IOException {
+        char[] password = new char[0];
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, password);
+        keyStore.setKeyEntry("bankid-client", readPrivateKey(bankIdProperties.getKeyStorePrivateKey()), password,
+                new Certificate[]{readCertificate(bankIdProperties.getKeyStoreCertificate())});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, password);
+        trustStore.setCertificateEntry("bankid", readCertificate(bankIdProperties.getTrustStore()));
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        return java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_1_1)
+                .sslContext(sslContext)
+                .connectTimeout(httpClientProperties.getConnectTimeout())
+                .build();
+    }
 }
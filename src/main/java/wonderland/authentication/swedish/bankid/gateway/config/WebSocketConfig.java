@@ -0,0 +1,19 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+import wonderland.authentication.swedish.bankid.gateway.controller.AuthenticationWebSocketHandler;
+
+import java.util.Map;
+
+@Configuration
+public class WebSocketConfig {
+
+    @Bean
+    public HandlerMapping authenticationWebSocketMapping(WebSocketProperties webSocketProperties,
+                                                         AuthenticationWebSocketHandler authenticationWebSocketHandler) {
+        return new SimpleUrlHandlerMapping(Map.of(webSocketProperties.getPath(), authenticationWebSocketHandler), -1);
+    }
+}
@@ -0,0 +1,21 @@
+package wonderland.authentication.swedish.bankid.gateway.config;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "bankid.websocket")
+@Getter
+@Builder
+public class WebSocketProperties {
+    @NotBlank
+    String path;
+    @NotNull
+    @Positive
+    Integer maxOrdersPerConnection;
+}
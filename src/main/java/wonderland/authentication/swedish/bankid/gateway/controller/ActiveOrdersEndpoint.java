@@ -0,0 +1,43 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import wonderland.authentication.swedish.bankid.gateway.service.ActiveOrderRegistry;
+import wonderland.authentication.swedish.bankid.gateway.type.ActiveOrder;
+import wonderland.authentication.swedish.bankid.gateway.type.ActiveOrdersResponse;
+
+@Component
+@Endpoint(id = "activeorders")
+public class ActiveOrdersEndpoint {
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final ActiveOrderRegistry activeOrderRegistry;
+
+    public ActiveOrdersEndpoint(ActiveOrderRegistry activeOrderRegistry) {
+        this.activeOrderRegistry = activeOrderRegistry;
+    }
+
+    @ReadOperation
+    public ActiveOrdersResponse activeOrders(@Nullable Integer page, @Nullable Integer size) {
+        int pageNumber = page == null ? 0 : Math.max(page, 0);
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : Math.clamp(size, 1, MAX_PAGE_SIZE);
+        return new ActiveOrdersResponse(
+                activeOrderRegistry.size(),
+                activeOrderRegistry.countAwaitingFirstCollect(),
+                activeOrderRegistry.countByUseCase(),
+                activeOrderRegistry.countByStatus(),
+                pageNumber,
+                pageSize,
+                activeOrderRegistry.list((int) Math.min((long) pageNumber * pageSize, Integer.MAX_VALUE), pageSize));
+    }
+
+    @ReadOperation
+    public ActiveOrder activeOrder(@Selector String orderReference) {
+        return activeOrderRegistry.find(orderReference).orElse(null);
+    }
+}
@@ -0,0 +1,198 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import wonderland.authentication.swedish.bankid.gateway.config.ChannelProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.EventProperties;
+import wonderland.authentication.swedish.bankid.gateway.service.AdmissionRejectedException;
+import wonderland.authentication.swedish.bankid.gateway.service.BankIdService;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.ChannelOpened;
+import wonderland.authentication.swedish.bankid.gateway.type.SocketFrame;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+@Slf4j
+@RestController
+@RequestMapping("/v1/methods/swedish-bankid/authentication-channel")
+public class AuthenticationChannelController {
+
+    private static final ServerSentEvent<Object> HEARTBEAT = ServerSentEvent.builder()
+            .comment("")
+            .build();
+
+    private final BankIdService bankIdService;
+    private final int maxOrdersPerChannel;
+    private final Flux<ServerSentEvent<Object>> heartbeats;
+    private final Counter conflatedEvents;
+    private final DistributionSummary bufferDepth;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    public AuthenticationChannelController(BankIdService bankIdService, ChannelProperties channelProperties, EventProperties eventProperties,
+                                           MeterRegistry meterRegistry) {
+        this.bankIdService = bankIdService;
+        this.maxOrdersPerChannel = channelProperties.getMaxOrdersPerChannel();
+        this.heartbeats = Flux.interval(eventProperties.getHeartbeatInterval())
+                .onBackpressureDrop()
+                .map(_ -> HEARTBEAT)
+                .share();
+        this.conflatedEvents = Counter.builder("bankid.channel.conflated")
+                .description("Pending channel events dropped because the client had not read the previous one for the same order")
+                .register(meterRegistry);
+        this.bufferDepth = DistributionSummary.builder("bankid.channel.buffer.depth")
+                .description("Events received for a channel order since its previous write")
+                .register(meterRegistry);
+        Gauge.builder("bankid.channel.open", channels, Map::size).register(meterRegistry);
+    }
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> openChannel(@RequestHeader("x-envoy-external-address") String endUserIp) {
+        return Flux.defer(() -> {
+            Channel channel = new Channel(UUID.randomUUID().toString(), endUserIp);
+            channels.put(channel.id, channel);
+            log.info("Opened authentication channel {} for ip {}", channel.id, endUserIp);
+            ServerSentEvent<Object> opened = ServerSentEvent.builder()
+                    .event("CHANNEL")
+                    .data(new ChannelOpened(channel.id))
+                    .build();
+            return Flux.merge(channel.frames(), heartbeats.onBackpressureDrop())
+                    .startWith(opened)
+                    .doFinally(_ -> {
+                        channels.remove(channel.id, channel);
+                        channel.close();
+                        log.info("Closed authentication channel {}", channel.id);
+                    });
+        });
+    }
+
+    @PostMapping("/{channelId}/orders")
+    public ResponseEntity<Void> addOrder(@PathVariable String channelId,
+                                         @RequestHeader("x-envoy-external-address") String endUserIp,
+                                         @RequestParam String ref,
+                                         @RequestParam UseCase useCase,
+                                         @RequestParam(required = false) String nonce,
+                                         @RequestParam(required = false) String handle,
+                                         @RequestParam(required = false) String lastEventId) {
+        channel(channelId, endUserIp).add(ref, () -> bankIdService.authenticationEventStream(endUserIp, useCase, lastEventId, nonce, handle));
+        return ResponseEntity.accepted().build();
+    }
+
+    @DeleteMapping("/{channelId}/orders/{ref}")
+    public ResponseEntity<Void> removeOrder(@PathVariable String channelId,
+                                            @PathVariable String ref,
+                                            @RequestHeader("x-envoy-external-address") String endUserIp) {
+        if (!channel(channelId, endUserIp).remove(ref)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown reference");
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private Channel channel(String channelId, String endUserIp) {
+        Channel channel = channels.get(channelId);
+        if (channel == null || !channel.endUserIp.equals(endUserIp)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown channel");
+        }
+        return channel;
+    }
+
+    private static ServerSentEvent<Object> toServerSentEvent(String ref, AuthenticationEvent authenticationEvent) {
+        return ServerSentEvent.builder()
+                .id(authenticationEvent.eventId())
+                .event(authenticationEvent.status().toString())
+                .data(SocketFrame.event(ref, authenticationEvent))
+                .build();
+    }
+
+    private static ServerSentEvent<Object> toServerSentEvent(String ref, AdmissionRejectedException e) {
+        return ServerSentEvent.builder()
+                .event(AuthenticationStatus.ERROR.toString())
+                .data(SocketFrame.error(ref, e.getReason(), e.retryAfterSeconds()))
+                .build();
+    }
+
+    private final class Channel {
+        private final String id;
+        private final String endUserIp;
+        private final Sinks.Many<Flux<ServerSentEvent<Object>>> orders = Sinks.many().unicast().onBackpressureBuffer();
+        private final Sinks.Many<String> removals = Sinks.many().multicast().directBestEffort();
+        private final Set<String> refs = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger orderCount = new AtomicInteger();
+
+        private Channel(String id, String endUserIp) {
+            this.id = id;
+            this.endUserIp = endUserIp;
+        }
+
+        private Flux<ServerSentEvent<Object>> frames() {
+            return orders.asFlux().flatMap(Function.identity(), Integer.MAX_VALUE, 1);
+        }
+
+        private void add(String ref, Supplier<Flux<AuthenticationEvent>> authenticationEvents) {
+            if (orderCount.getAndUpdate(count -> count < maxOrdersPerChannel ? count + 1 : count) >= maxOrdersPerChannel) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Too many orders on this channel");
+            }
+            if (!refs.add(ref)) {
+                orderCount.decrementAndGet();
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Reference already in use");
+            }
+            Flux<ServerSentEvent<Object>> frames = new ConflatingFlux<>(authenticationEvents.get(), authenticationEvent -> !authenticationEvent.isTerminal(),
+                    _ -> false, conflatedEvents, bufferDepth)
+                    .map(authenticationEvent -> toServerSentEvent(ref, authenticationEvent))
+                    .onErrorResume(AdmissionRejectedException.class, e -> Mono.just(toServerSentEvent(ref, e)))
+                    .takeUntilOther(removals.asFlux().filter(ref::equals))
+                    .doFinally(_ -> {
+                        refs.remove(ref);
+                        orderCount.decrementAndGet();
+                    });
+            Sinks.EmitResult result;
+            while ((result = orders.tryEmitNext(frames)) == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+                Thread.onSpinWait();
+            }
+            if (result.isFailure()) {
+                refs.remove(ref);
+                orderCount.decrementAndGet();
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown channel");
+            }
+        }
+
+        private boolean remove(String ref) {
+            if (!refs.contains(ref)) {
+                return false;
+            }
+            removals.tryEmitNext(ref);
+            return true;
+        }
+
+        private void close() {
+            orders.tryEmitComplete();
+            removals.tryEmitComplete();
+        }
+    }
+}
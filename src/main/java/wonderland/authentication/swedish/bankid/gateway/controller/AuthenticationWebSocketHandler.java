@@ -0,0 +1,191 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import wonderland.authentication.swedish.bankid.gateway.config.WebSocketProperties;
+import wonderland.authentication.swedish.bankid.gateway.service.AdmissionRejectedException;
+import wonderland.authentication.swedish.bankid.gateway.service.BankIdService;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.SocketCommand;
+import wonderland.authentication.swedish.bankid.gateway.type.SocketFrame;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Component
+public class AuthenticationWebSocketHandler implements WebSocketHandler {
+
+    private static final String END_USER_IP_HEADER = "x-envoy-external-address";
+
+    private final BankIdService bankIdService;
+    private final ObjectMapper objectMapper;
+    private final int maxOrdersPerConnection;
+
+    public AuthenticationWebSocketHandler(BankIdService bankIdService, ObjectMapper objectMapper, WebSocketProperties webSocketProperties) {
+        this.bankIdService = bankIdService;
+        this.objectMapper = objectMapper;
+        this.maxOrdersPerConnection = webSocketProperties.getMaxOrdersPerConnection();
+    }
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        String endUserIp = session.getHandshakeInfo().getHeaders().getFirst(END_USER_IP_HEADER);
+        if (endUserIp == null) {
+            return session.close(CloseStatus.POLICY_VIOLATION.withReason("Missing %s header".formatted(END_USER_IP_HEADER)));
+        }
+        Connection connection = new Connection(endUserIp);
+        Flux<WebSocketMessage> frames = session.receive()
+                .map(WebSocketMessage::getPayloadAsText)
+                .flatMap(payload -> connection.handle(decode(payload)))
+                .mapNotNull(this::encode)
+                .map(session::textMessage);
+        return session.send(frames)
+                .doFinally(_ -> connection.cancels.tryEmitComplete());
+    }
+
+    private SocketCommand decode(String payload) {
+        try {
+            return objectMapper.readValue(payload, SocketCommand.class);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            log.info("Malformed socket command {}", payload);
+            return null;
+        }
+    }
+
+    private String encode(SocketFrame socketFrame) {
+        try {
+            return objectMapper.writeValueAsString(socketFrame);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to encode socket frame {}", socketFrame, e);
+            return null;
+        }
+    }
+
+    private final class Connection {
+        private final String endUserIp;
+        private final Sinks.Many<String> cancels = Sinks.many().multicast().directBestEffort();
+        private final Map<String, UnacknowledgedFrames> unacknowledged = new ConcurrentHashMap<>();
+
+        private Connection(String endUserIp) {
+            this.endUserIp = endUserIp;
+        }
+
+        private Flux<SocketFrame> handle(SocketCommand command) {
+            if (command == null || command.op() == null || command.ref() == null) {
+                return Flux.just(SocketFrame.error(command == null ? null : command.ref(), "Malformed command", null));
+            }
+            return switch (command.op()) {
+                case START -> start(command);
+                case CANCEL -> {
+                    cancels.tryEmitNext(command.ref());
+                    yield Flux.empty();
+                }
+                case ACK -> {
+                    UnacknowledgedFrames pending = unacknowledged.get(command.ref());
+                    if (pending != null) {
+                        pending.acknowledge(command.id());
+                    }
+                    yield Flux.empty();
+                }
+            };
+        }
+
+        private Flux<SocketFrame> start(SocketCommand command) {
+            String ref = command.ref();
+            if (command.useCase() == null) {
+                return Flux.just(SocketFrame.error(ref, "Missing use case", null));
+            }
+            if (unacknowledged.size() >= maxOrdersPerConnection) {
+                return Flux.just(SocketFrame.error(ref, "Too many orders on this connection", null));
+            }
+            int window = command.window() == null ? Integer.MAX_VALUE : Math.max(command.window(), 1);
+            UnacknowledgedFrames pending = new UnacknowledgedFrames(window);
+            if (unacknowledged.putIfAbsent(ref, pending) != null) {
+                return Flux.just(SocketFrame.error(ref, "Reference already in use", null));
+            }
+            return pending.control(bankIdService.authenticationEventStream(endUserIp, command.useCase(), command.lastEventId(), command.nonce(),
+                            command.handle()))
+                    .map(authenticationEvent -> SocketFrame.event(ref, authenticationEvent))
+                    .onErrorResume(AdmissionRejectedException.class,
+                            e -> Mono.just(SocketFrame.error(ref, e.getReason(), e.retryAfterSeconds())))
+                    .takeUntilOther(cancels.asFlux().filter(ref::equals))
+                    .doFinally(_ -> unacknowledged.remove(ref, pending));
+        }
+    }
+
+    private static final class UnacknowledgedFrames {
+        private final int window;
+        private final ArrayDeque<String> frameIds = new ArrayDeque<>();
+        private final Sinks.Many<AuthenticationEvent> released = Sinks.many().unicast().onBackpressureBuffer();
+        private AuthenticationEvent held;
+
+        private UnacknowledgedFrames(int window) {
+            this.window = window;
+        }
+
+        private Flux<AuthenticationEvent> control(Flux<AuthenticationEvent> authenticationEvents) {
+            return released.asFlux()
+                    .mergeWith(authenticationEvents
+                            .doOnNext(this::offer)
+                            .doOnComplete(this::complete)
+                            .then(Mono.empty()));
+        }
+
+        private synchronized void offer(AuthenticationEvent authenticationEvent) {
+            if (authenticationEvent.isTerminal() || frameIds.size() < window) {
+                held = null;
+                send(authenticationEvent);
+            } else {
+                held = authenticationEvent;
+            }
+        }
+
+        private synchronized void acknowledge(String frameId) {
+            if (frameId == null) {
+                frameIds.clear();
+            } else {
+                int acknowledged = 0;
+                int position = 0;
+                for (String sentFrameId : frameIds) {
+                    position++;
+                    if (sentFrameId.equals(frameId)) {
+                        acknowledged = position;
+                    }
+                }
+                for (int i = 0; i < acknowledged; i++) {
+                    frameIds.poll();
+                }
+            }
+            if (held != null && frameIds.size() < window) {
+                send(held);
+                held = null;
+            }
+        }
+
+        private synchronized void complete() {
+            if (held != null) {
+                send(held);
+                held = null;
+            }
+            released.tryEmitComplete();
+        }
+
+        private void send(AuthenticationEvent authenticationEvent) {
+            if (window != Integer.MAX_VALUE) {
+                frameIds.add(authenticationEvent.eventId());
+            }
+            released.tryEmitNext(authenticationEvent);
+        }
+    }
+}
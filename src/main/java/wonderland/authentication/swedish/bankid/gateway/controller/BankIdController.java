@@ -1,18 +1,28 @@
 package wonderland.authentication.swedish.bankid.gateway.controller;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.EventProperties;
+import wonderland.authentication.swedish.bankid.gateway.service.AdmissionRejectedException;
 import wonderland.authentication.swedish.bankid.gateway.service.BankIdService;
 import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
 import wonderland.authentication.swedish.bankid.gateway.type.NationalIdResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.PrepareResponse;
 import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
 
 @Slf4j
@@ -21,23 +31,58 @@ import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
 public class BankIdController {
 
     private final BankIdService bankIdService;
+    private final Flux<AuthenticationEvent> heartbeats;
+    private final Counter conflatedEvents;
+    private final DistributionSummary bufferDepth;
 
-    public BankIdController(BankIdService bankIdService) {
+    public BankIdController(BankIdService bankIdService, EventProperties eventProperties, MeterRegistry meterRegistry) {
         this.bankIdService = bankIdService;
+        this.conflatedEvents = Counter.builder("bankid.sse.conflated")
+                .description("Pending events dropped because the client had not read the previous one")
+                .register(meterRegistry);
+        this.bufferDepth = DistributionSummary.builder("bankid.sse.buffer.depth")
+                .description("Events received for a connection since its previous write")
+                .register(meterRegistry);
+        this.heartbeats = eventProperties.getChangesOnly()
+                ? Flux.interval(eventProperties.getHeartbeatInterval())
+                        .onBackpressureDrop()
+                        .map(_ -> ServerSentEventFrames.HEARTBEAT)
+                        .share()
+                : Flux.empty();
+    }
+
+    @PostMapping("/prepare")
+    public Mono<PrepareResponse> prepare(@RequestHeader("x-envoy-external-address") String endUserIp, @RequestParam UseCase useCase) {
+        return bankIdService.prepare(endUserIp, useCase).map(PrepareResponse::new);
     }
 
     @GetMapping(value = "/authentication-events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<ServerSentEvent<AuthenticationEvent>> getAuthenticationEvents(@RequestHeader("x-envoy-external-address") String endUserIp,
-                                                                              @RequestParam UseCase useCase) {
-        return bankIdService.authenticationEventStream(endUserIp, useCase)
-                .map(this::toServerSentEvent);
+    public Mono<Void> getAuthenticationEvents(@RequestHeader("x-envoy-external-address") String endUserIp,
+                                              @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                              @RequestParam UseCase useCase,
+                                              @RequestParam(required = false) String nonce,
+                                              @RequestParam(required = false) String handle,
+                                              ServerHttpResponse response) {
+        Flux<AuthenticationEvent> events = bankIdService.authenticationEventStream(endUserIp, useCase, lastEventId, nonce, handle)
+                .publish(shared -> Flux.merge(shared, heartbeats.takeUntilOther(shared.then(Mono.just(true)))));
+        ServerSentEventFrames frames = new ServerSentEventFrames(response.bufferFactory());
+        response.getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+        return response.writeAndFlushWith(new ConflatingFlux<>(events, this::isConflatable, this::isHeartbeat, conflatedEvents, bufferDepth)
+                .map(authenticationEvent -> Mono.just(frames.encode(authenticationEvent))));
+    }
+
+    private boolean isConflatable(AuthenticationEvent authenticationEvent) {
+        return !authenticationEvent.isTerminal();
+    }
+
+    private boolean isHeartbeat(AuthenticationEvent authenticationEvent) {
+        return authenticationEvent == ServerSentEventFrames.HEARTBEAT;
     }
 
-    private ServerSentEvent<AuthenticationEvent> toServerSentEvent(AuthenticationEvent authenticationEvent) {
-        return ServerSentEvent.<AuthenticationEvent>builder()
-                .id(authenticationEvent.id())
-                .event(authenticationEvent.status().toString())
-                .data(authenticationEvent)
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<Void> rejectAdmission(AdmissionRejectedException e) {
+        return ResponseEntity.status(e.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.retryAfterSeconds()))
                 .build();
     }
 
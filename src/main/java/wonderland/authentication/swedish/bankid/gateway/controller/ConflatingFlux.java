@@ -0,0 +1,191 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Operators;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Predicate;
+
+final class ConflatingFlux<T> extends FluxOperator<T, T> {
+
+    private final Predicate<T> conflatable;
+    private final Predicate<T> filler;
+    private final Counter conflated;
+    private final DistributionSummary bufferDepth;
+
+    ConflatingFlux(Flux<? extends T> source, Predicate<T> conflatable, Predicate<T> filler, Counter conflated,
+                   DistributionSummary bufferDepth) {
+        super(source);
+        this.conflatable = conflatable;
+        this.filler = filler;
+        this.conflated = conflated;
+        this.bufferDepth = bufferDepth;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super T> actual) {
+        source.subscribe(new ConflatingSubscriber<>(actual, this));
+    }
+
+    private static final class ConflatingSubscriber<T> implements CoreSubscriber<T>, Subscription {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<ConflatingSubscriber> REQUESTED =
+                AtomicLongFieldUpdater.newUpdater(ConflatingSubscriber.class, "requested");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<ConflatingSubscriber> WIP =
+                AtomicIntegerFieldUpdater.newUpdater(ConflatingSubscriber.class, "wip");
+
+        private final CoreSubscriber<? super T> actual;
+        private final ConflatingFlux<T> parent;
+        private final ArrayDeque<T> retained = new ArrayDeque<>(2);
+        private Subscription upstream;
+        private T latest;
+        private int received;
+        private volatile long requested;
+        private volatile int wip;
+        private volatile boolean done;
+        private volatile boolean cancelled;
+        private Throwable error;
+
+        private ConflatingSubscriber(CoreSubscriber<? super T> actual, ConflatingFlux<T> parent) {
+            this.actual = actual;
+            this.parent = parent;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (Operators.validate(upstream, subscription)) {
+                upstream = subscription;
+                actual.onSubscribe(this);
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(T value) {
+            synchronized (this) {
+                received++;
+                if (parent.filler.test(value)) {
+                    if (!isEmpty()) {
+                        return;
+                    }
+                    latest = value;
+                } else if (parent.conflatable.test(value)) {
+                    if (!retained.isEmpty()) {
+                        parent.conflated.increment();
+                        return;
+                    }
+                    discardLatest();
+                    latest = value;
+                } else {
+                    discardLatest();
+                    retained.add(value);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            upstream.cancel();
+            if (WIP.getAndIncrement(this) == 0) {
+                clear();
+            }
+        }
+
+        private synchronized T poll() {
+            T next = retained.poll();
+            if (next == null) {
+                next = latest;
+                latest = null;
+            }
+            if (next != null) {
+                parent.bufferDepth.record(received);
+                received = 0;
+            }
+            return next;
+        }
+
+        private void discardLatest() {
+            if (latest != null && !parent.filler.test(latest)) {
+                parent.conflated.increment();
+            }
+            latest = null;
+        }
+
+        private synchronized void clear() {
+            retained.clear();
+            latest = null;
+        }
+
+        private void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long emitted = 0;
+                long demand = requested;
+                while (true) {
+                    if (cancelled) {
+                        clear();
+                        return;
+                    }
+                    boolean terminated = done;
+                    T next = emitted == demand ? null : poll();
+                    if (next == null) {
+                        if (terminated && isEmpty()) {
+                            Throwable throwable = error;
+                            if (throwable != null) {
+                                actual.onError(throwable);
+                            } else {
+                                actual.onComplete();
+                            }
+                            return;
+                        }
+                        break;
+                    }
+                    actual.onNext(next);
+                    emitted++;
+                }
+                if (emitted != 0) {
+                    Operators.produced(REQUESTED, this, emitted);
+                }
+                missed = WIP.addAndGet(this, -missed);
+            } while (missed != 0);
+        }
+
+        private synchronized boolean isEmpty() {
+            return retained.isEmpty() && latest == null;
+        }
+    }
+}
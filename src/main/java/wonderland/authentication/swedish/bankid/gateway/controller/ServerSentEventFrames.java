@@ -0,0 +1,172 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.CompletedAuthentication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+final class ServerSentEventFrames {
+
+    static final AuthenticationEvent HEARTBEAT = new AuthenticationEvent(null, AuthenticationStatus.PENDING, null, null, null, null);
+
+    private static final AuthenticationStatus[] STATUSES = AuthenticationStatus.values();
+    private static final byte[] HEARTBEAT_FRAME = ascii(":\n\n");
+    private static final byte[] ID = ascii("id:");
+    private static final byte[][] EVENT_AND_DATA = new byte[STATUSES.length][];
+    private static final byte[][] STATUS_AND_DATA = new byte[STATUSES.length][];
+    private static final byte[] COMPLETION_DATA = ascii(",\"completionData\":");
+    private static final byte[] ORDER_REFERENCE = ascii("{\"orderReference\":");
+    private static final byte[] NATIONAL_ID = ascii(",\"nationalId\":");
+    private static final byte[] HINT_CODE = ascii(",\"hintCode\":");
+    private static final byte[] HANDLE = ascii(",\"handle\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] END = ascii("}\n\n");
+    private static final JsonStringEncoder JSON_STRING_ENCODER = JsonStringEncoder.getInstance();
+
+    static {
+        for (AuthenticationStatus status : STATUSES) {
+            EVENT_AND_DATA[status.ordinal()] = ascii("\nevent:%s\ndata:{\"id\":".formatted(status));
+            STATUS_AND_DATA[status.ordinal()] = ascii(",\"status\":\"%s\",\"data\":".formatted(status));
+        }
+    }
+
+    private final DataBufferFactory bufferFactory;
+    private AuthenticationEvent previous;
+    private byte[] cachedTail;
+
+    ServerSentEventFrames(DataBufferFactory bufferFactory) {
+        this.bufferFactory = bufferFactory;
+    }
+
+    DataBuffer encode(AuthenticationEvent authenticationEvent) {
+        if (authenticationEvent == HEARTBEAT) {
+            return bufferFactory.allocateBuffer(HEARTBEAT_FRAME.length).write(HEARTBEAT_FRAME);
+        }
+        String handle = authenticationEvent.handle();
+        String id = authenticationEvent.id();
+        byte[] eventAndData = EVENT_AND_DATA[authenticationEvent.status().ordinal()];
+        boolean sameTail = sameTail(previous, authenticationEvent);
+        byte[] tail = sameTail ? cachedTail : null;
+        int tailLength = tail == null ? tailLength(authenticationEvent) : tail.length;
+        DataBuffer buffer = bufferFactory.allocateBuffer(ID.length + (handle == null ? 0 : utf8Length(handle) + 1)
+                + utf8Length(id) + eventAndData.length + jsonLength(id) + tailLength);
+        buffer.write(ID);
+        if (handle != null) {
+            buffer.write(handle, StandardCharsets.UTF_8).write((byte) AuthenticationEvent.HANDLE_SEPARATOR);
+        }
+        buffer.write(id, StandardCharsets.UTF_8).write(eventAndData);
+        writeJsonString(buffer, id);
+        if (tail != null) {
+            buffer.write(tail);
+        } else {
+            int tailStart = buffer.writePosition();
+            writeTail(buffer, authenticationEvent);
+            cachedTail = sameTail ? copy(buffer, tailStart, tailLength) : null;
+        }
+        previous = authenticationEvent;
+        return buffer;
+    }
+
+    private static boolean sameTail(AuthenticationEvent previous, AuthenticationEvent current) {
+        return previous != null
+                && previous.status() == current.status()
+                && Objects.equals(previous.data(), current.data())
+                && Objects.equals(previous.hintCode(), current.hintCode())
+                && Objects.equals(previous.handle(), current.handle())
+                && Objects.equals(previous.completionData(), current.completionData());
+    }
+
+    private static byte[] copy(DataBuffer buffer, int index, int length) {
+        byte[] bytes = new byte[length];
+        buffer.toByteBuffer(index, ByteBuffer.wrap(bytes), 0, length);
+        return bytes;
+    }
+
+    private static int tailLength(AuthenticationEvent authenticationEvent) {
+        CompletedAuthentication completionData = authenticationEvent.completionData();
+        int completionLength = completionData == null
+                ? NULL.length
+                : ORDER_REFERENCE.length + jsonLength(completionData.orderReference())
+                + NATIONAL_ID.length + jsonLength(completionData.nationalId()) + 1;
+        return STATUS_AND_DATA[authenticationEvent.status().ordinal()].length + jsonLength(authenticationEvent.data())
+                + COMPLETION_DATA.length + completionLength
+                + HINT_CODE.length + jsonLength(authenticationEvent.hintCode())
+                + HANDLE.length + jsonLength(authenticationEvent.handle())
+                + END.length;
+    }
+
+    private static void writeTail(DataBuffer buffer, AuthenticationEvent authenticationEvent) {
+        buffer.write(STATUS_AND_DATA[authenticationEvent.status().ordinal()]);
+        writeJsonString(buffer, authenticationEvent.data());
+        buffer.write(COMPLETION_DATA);
+        CompletedAuthentication completionData = authenticationEvent.completionData();
+        if (completionData == null) {
+            buffer.write(NULL);
+        } else {
+            buffer.write(ORDER_REFERENCE);
+            writeJsonString(buffer, completionData.orderReference());
+            buffer.write(NATIONAL_ID);
+            writeJsonString(buffer, completionData.nationalId());
+            buffer.write((byte) '}');
+        }
+        buffer.write(HINT_CODE);
+        writeJsonString(buffer, authenticationEvent.hintCode());
+        buffer.write(HANDLE);
+        writeJsonString(buffer, authenticationEvent.handle());
+        buffer.write(END);
+    }
+
+    private static void writeJsonString(DataBuffer buffer, String value) {
+        if (value == null) {
+            buffer.write(NULL);
+            return;
+        }
+        buffer.write((byte) '"');
+        if (isPlainAscii(value)) {
+            buffer.write(value, StandardCharsets.US_ASCII);
+        } else {
+            buffer.write(JSON_STRING_ENCODER.quoteAsUTF8(value));
+        }
+        buffer.write((byte) '"');
+    }
+
+    private static int jsonLength(String value) {
+        if (value == null) {
+            return NULL.length;
+        }
+        return 2 + (isPlainAscii(value) ? value.length() : JSON_STRING_ENCODER.quoteAsUTF8(value).length);
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isPlainAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,45 @@
+package wonderland.authentication.swedish.bankid.gateway.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.logging.Level;
+
+@Slf4j
+@Repository
+public class ClusterNodeRepository {
+
+    private static final String NODES_KEY = "cluster:nodes";
+
+    private final ReactiveRedisOperations<String, String> redisOperations;
+
+    public ClusterNodeRepository(ReactiveRedisOperations<String, String> redisOperations) {
+        this.redisOperations = redisOperations;
+    }
+
+    public Mono<Boolean> heartbeat(String nodeId, Duration leaseTtl) {
+        long now = System.currentTimeMillis();
+        return redisOperations.opsForZSet().add(NODES_KEY, nodeId, now + leaseTtl.toMillis())
+                .flatMap(added -> redisOperations.opsForZSet()
+                        .removeRangeByScore(NODES_KEY, Range.closed(Double.NEGATIVE_INFINITY, (double) now))
+                        .thenReturn(added))
+                .log("ClusterNodeRepository.heartbeat", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Flux<String> liveNodes() {
+        return redisOperations.opsForZSet()
+                .rangeByScore(NODES_KEY, Range.closed((double) System.currentTimeMillis(), Double.POSITIVE_INFINITY))
+                .log("ClusterNodeRepository.liveNodes", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Long> remove(String nodeId) {
+        return redisOperations.opsForZSet().remove(NODES_KEY, nodeId)
+                .log("ClusterNodeRepository.remove", Level.WARNING, SignalType.ON_ERROR);
+    }
+}
@@ -0,0 +1,61 @@
+package wonderland.authentication.swedish.bankid.gateway.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.logging.Level;
+
+@Slf4j
+@Repository
+public class OrderOwnershipRepository {
+
+    private static final String KEY_PREFIX = "order-owner:";
+    private static final RedisScript<Long> RENEW = RedisScript.of("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+    private static final RedisScript<Long> RELEASE = RedisScript.of("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('del', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final ReactiveRedisOperations<String, String> redisOperations;
+
+    public OrderOwnershipRepository(ReactiveRedisOperations<String, String> redisOperations) {
+        this.redisOperations = redisOperations;
+    }
+
+    public Mono<Boolean> claim(String orderReference, String nodeId, Duration leaseTtl) {
+        return redisOperations.opsForValue().setIfAbsent(KEY_PREFIX + orderReference, nodeId, leaseTtl)
+                .log("OrderOwnershipRepository.claim", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<String> owner(String orderReference) {
+        return redisOperations.opsForValue().get(KEY_PREFIX + orderReference)
+                .log("OrderOwnershipRepository.owner", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Boolean> renew(String orderReference, String nodeId, Duration leaseTtl) {
+        return redisOperations.execute(RENEW, List.of(KEY_PREFIX + orderReference), List.of(nodeId, String.valueOf(leaseTtl.toMillis())))
+                .next()
+                .map(renewed -> renewed == 1L)
+                .log("OrderOwnershipRepository.renew", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Boolean> release(String orderReference, String nodeId) {
+        return redisOperations.execute(RELEASE, List.of(KEY_PREFIX + orderReference), List.of(nodeId))
+                .next()
+                .map(released -> released == 1L)
+                .log("OrderOwnershipRepository.release", Level.WARNING, SignalType.ON_ERROR);
+    }
+}
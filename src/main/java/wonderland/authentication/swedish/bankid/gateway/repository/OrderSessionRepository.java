@@ -0,0 +1,94 @@
+package wonderland.authentication.swedish.bankid.gateway.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+@Slf4j
+@Repository
+public class OrderSessionRepository {
+
+    private static final String KEY_PREFIX = "order-session:";
+    private static final String ORDER_REF = "orderRef";
+    private static final String USE_CASE = "useCase";
+    private static final String END_USER_IP = "endUserIp";
+    private static final String AUTO_START_TOKEN = "autoStartToken";
+    private static final String QR_START_TOKEN = "qrStartToken";
+    private static final String QR_START_SECRET = "qrStartSecret";
+    private static final String STARTED_AT = "startedAt";
+    private static final String STATUS = "status";
+
+    private final CollectProperties collectProperties;
+    private final ReactiveRedisOperations<String, String> redisOperations;
+
+    public OrderSessionRepository(CollectProperties collectProperties, ReactiveRedisOperations<String, String> redisOperations) {
+        this.collectProperties = collectProperties;
+        this.redisOperations = redisOperations;
+    }
+
+    public Mono<Boolean> save(OrderSession orderSession) {
+        String key = KEY_PREFIX + orderSession.handle();
+        return hashOperations().putAll(key, toHash(orderSession))
+                .flatMap(_ -> redisOperations.expire(key, collectProperties.getOrderTimeout()))
+                .log("OrderSessionRepository.save", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<OrderSession> find(String handle) {
+        return hashOperations().entries(KEY_PREFIX + handle)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .filter(hash -> !hash.isEmpty())
+                .map(hash -> fromHash(handle, hash))
+                .log("OrderSessionRepository.find", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Boolean> updateStatus(String handle, AuthenticationStatus status) {
+        return hashOperations().put(KEY_PREFIX + handle, STATUS, status.name())
+                .log("OrderSessionRepository.updateStatus", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    private ReactiveHashOperations<String, String, String> hashOperations() {
+        return redisOperations.opsForHash();
+    }
+
+    private static Map<String, String> toHash(OrderSession orderSession) {
+        Map<String, String> hash = new HashMap<>();
+        hash.put(ORDER_REF, orderSession.orderRef());
+        hash.put(USE_CASE, orderSession.useCase().name());
+        hash.put(END_USER_IP, orderSession.endUserIp());
+        hash.put(STARTED_AT, String.valueOf(orderSession.startedAtMillis()));
+        hash.put(STATUS, orderSession.status().name());
+        if (orderSession.autoStartToken() != null) {
+            hash.put(AUTO_START_TOKEN, orderSession.autoStartToken());
+        }
+        if (orderSession.qrStartToken() != null) {
+            hash.put(QR_START_TOKEN, orderSession.qrStartToken());
+        }
+        if (orderSession.qrStartSecret() != null) {
+            hash.put(QR_START_SECRET, orderSession.qrStartSecret());
+        }
+        return hash;
+    }
+
+    private static OrderSession fromHash(String handle, Map<String, String> hash) {
+        return new OrderSession(handle,
+                hash.get(ORDER_REF),
+                UseCase.valueOf(hash.get(USE_CASE)),
+                hash.get(END_USER_IP),
+                hash.get(AUTO_START_TOKEN),
+                hash.get(QR_START_TOKEN),
+                hash.get(QR_START_SECRET),
+                Long.parseLong(hash.get(STARTED_AT)),
+                AuthenticationStatus.valueOf(hash.get(STATUS)));
+    }
+}
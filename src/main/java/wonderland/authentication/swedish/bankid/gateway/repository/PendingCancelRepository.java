@@ -0,0 +1,49 @@
+package wonderland.authentication.swedish.bankid.gateway.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.logging.Level;
+
+@Slf4j
+@Repository
+public class PendingCancelRepository {
+
+    private static final String KEY_PREFIX = "cancel-pending:";
+    private static final RedisScript<Long> CONFIRM = RedisScript.of("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+                return redis.call('del', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final ReactiveRedisOperations<String, String> redisOperations;
+
+    public PendingCancelRepository(ReactiveRedisOperations<String, String> redisOperations) {
+        this.redisOperations = redisOperations;
+    }
+
+    public Mono<Boolean> mark(String orderReference, String token, Duration ttl) {
+        return redisOperations.opsForValue().set(KEY_PREFIX + orderReference, token, ttl)
+                .log("PendingCancelRepository.mark", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Boolean> confirm(String orderReference, String token) {
+        return redisOperations.execute(CONFIRM, List.of(KEY_PREFIX + orderReference), List.of(token))
+                .next()
+                .map(confirmed -> confirmed == 1L)
+                .log("PendingCancelRepository.confirm", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Boolean> revoke(String orderReference) {
+        return redisOperations.delete(KEY_PREFIX + orderReference)
+                .map(deleted -> deleted > 0)
+                .log("PendingCancelRepository.revoke", Level.WARNING, SignalType.ON_ERROR);
+    }
+}
@@ -0,0 +1,34 @@
+package wonderland.authentication.swedish.bankid.gateway.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.logging.Level;
+
+@Slf4j
+@Repository
+public class PreparedOrderRepository {
+
+    private static final String KEY_PREFIX = "prepared-order:";
+
+    private final ReactiveRedisOperations<String, String> redisOperations;
+
+    public PreparedOrderRepository(ReactiveRedisOperations<String, String> redisOperations) {
+        this.redisOperations = redisOperations;
+    }
+
+    public Mono<Boolean> save(String handle, String orderReference, Duration ttl) {
+        return redisOperations.opsForValue().set(KEY_PREFIX + handle, orderReference, ttl)
+                .log("PreparedOrderRepository.save", Level.WARNING, SignalType.ON_ERROR);
+    }
+
+    public Mono<Boolean> claim(String handle) {
+        return redisOperations.delete(KEY_PREFIX + handle)
+                .map(deleted -> deleted > 0)
+                .log("PreparedOrderRepository.claim", Level.WARNING, SignalType.ON_ERROR);
+    }
+}
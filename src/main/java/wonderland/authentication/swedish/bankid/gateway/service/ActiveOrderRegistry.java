@@ -0,0 +1,269 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import wonderland.authentication.swedish.bankid.gateway.type.ActiveOrder;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.HintCode;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+@Slf4j
+@Component
+public class ActiveOrderRegistry {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int OCCUPIED = 1;
+    private static final int USE_CASE_SHIFT = 1;
+    private static final int USE_CASE_MASK = 0x3;
+    private static final int STATUS_SHIFT = 3;
+    private static final int STATUS_MASK = 0x3;
+    private static final int HINT_CODE_SHIFT = 5;
+    private static final int HINT_CODE_MASK = 0x1F;
+    private static final int SUBSCRIBERS_SHIFT = 10;
+    private static final int SUBSCRIBERS_MASK = 0xFFFF;
+    private static final UseCase[] USE_CASES = UseCase.values();
+    private static final CollectResponse.Status[] STATUSES = CollectResponse.Status.values();
+    private static final HintCode[] HINT_CODES = HintCode.values();
+
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    private long[] startedAtMillis;
+    private int[] states;
+    private int size;
+    private final int[] useCaseCounts = new int[USE_CASES.length];
+    private final int[] statusCounts = new int[STATUSES.length + 1];
+
+    public ActiveOrderRegistry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    ActiveOrderRegistry(int initialCapacity) {
+        allocate(Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 1);
+    }
+
+    public boolean register(String orderReference, UseCase useCase, long startedAt) {
+        UUID key = parse(orderReference);
+        if (key == null) {
+            return false;
+        }
+        synchronized (this) {
+            int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot >= 0) {
+                return false;
+            }
+            slot = ~slot;
+            mostSignificantBits[slot] = key.getMostSignificantBits();
+            leastSignificantBits[slot] = key.getLeastSignificantBits();
+            startedAtMillis[slot] = startedAt;
+            states[slot] = OCCUPIED | useCase.ordinal() << USE_CASE_SHIFT;
+            useCaseCounts[useCase.ordinal()]++;
+            statusCounts[0]++;
+            if (++size > states.length / 4 * 3) {
+                resize();
+            }
+            return true;
+        }
+    }
+
+    public void update(String orderReference, CollectResponse.Status status, String hintCode) {
+        UUID key = parse(orderReference);
+        if (key == null) {
+            return;
+        }
+        HintCode hint = HintCode.fromCode(hintCode);
+        synchronized (this) {
+            int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot < 0) {
+                return;
+            }
+            int state = states[slot];
+            statusCounts[state >>> STATUS_SHIFT & STATUS_MASK]--;
+            statusCounts[status.ordinal() + 1]++;
+            state &= ~(STATUS_MASK << STATUS_SHIFT | HINT_CODE_MASK << HINT_CODE_SHIFT);
+            state |= (status.ordinal() + 1) << STATUS_SHIFT;
+            state |= (hint == null ? 0 : hint.ordinal() + 1) << HINT_CODE_SHIFT;
+            states[slot] = state;
+        }
+    }
+
+    public void attach(String orderReference) {
+        addSubscribers(orderReference, 1);
+    }
+
+    public void detach(String orderReference) {
+        addSubscribers(orderReference, -1);
+    }
+
+    public Optional<ActiveOrder> find(String orderReference) {
+        UUID key = parse(orderReference);
+        if (key == null) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            return slot < 0 ? Optional.empty() : Optional.of(activeOrder(slot));
+        }
+    }
+
+    public Optional<ActiveOrder> remove(String orderReference) {
+        UUID key = parse(orderReference);
+        if (key == null) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot < 0) {
+                return Optional.empty();
+            }
+            ActiveOrder activeOrder = activeOrder(slot);
+            useCaseCounts[states[slot] >>> USE_CASE_SHIFT & USE_CASE_MASK]--;
+            statusCounts[states[slot] >>> STATUS_SHIFT & STATUS_MASK]--;
+            size--;
+            delete(slot);
+            return Optional.of(activeOrder);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized Map<UseCase, Integer> countByUseCase() {
+        Map<UseCase, Integer> counts = new EnumMap<>(UseCase.class);
+        for (UseCase useCase : USE_CASES) {
+            counts.put(useCase, useCaseCounts[useCase.ordinal()]);
+        }
+        return counts;
+    }
+
+    public synchronized Map<CollectResponse.Status, Integer> countByStatus() {
+        Map<CollectResponse.Status, Integer> counts = new EnumMap<>(CollectResponse.Status.class);
+        for (CollectResponse.Status status : STATUSES) {
+            counts.put(status, statusCounts[status.ordinal() + 1]);
+        }
+        return counts;
+    }
+
+    public synchronized int countAwaitingFirstCollect() {
+        return statusCounts[0];
+    }
+
+    public synchronized List<ActiveOrder> list(int offset, int limit) {
+        List<ActiveOrder> page = new ArrayList<>(Math.min(limit, size));
+        int skipped = 0;
+        for (int slot = 0; slot < states.length && page.size() < limit; slot++) {
+            if (states[slot] == 0) {
+                continue;
+            }
+            if (skipped++ >= offset) {
+                page.add(activeOrder(slot));
+            }
+        }
+        return page;
+    }
+
+    private void addSubscribers(String orderReference, int delta) {
+        UUID key = parse(orderReference);
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            int slot = find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot < 0) {
+                return;
+            }
+            int subscribers = Math.clamp((long) (states[slot] >>> SUBSCRIBERS_SHIFT & SUBSCRIBERS_MASK) + delta, 0, SUBSCRIBERS_MASK);
+            states[slot] = states[slot] & ~(SUBSCRIBERS_MASK << SUBSCRIBERS_SHIFT) | subscribers << SUBSCRIBERS_SHIFT;
+        }
+    }
+
+    private ActiveOrder activeOrder(int slot) {
+        int state = states[slot];
+        int status = state >>> STATUS_SHIFT & STATUS_MASK;
+        int hintCode = state >>> HINT_CODE_SHIFT & HINT_CODE_MASK;
+        return new ActiveOrder(
+                new UUID(mostSignificantBits[slot], leastSignificantBits[slot]).toString(),
+                USE_CASES[state >>> USE_CASE_SHIFT & USE_CASE_MASK],
+                startedAtMillis[slot],
+                status == 0 ? null : STATUSES[status - 1],
+                hintCode == 0 ? null : HINT_CODES[hintCode - 1],
+                state >>> SUBSCRIBERS_SHIFT & SUBSCRIBERS_MASK);
+    }
+
+    private int find(long mostSignificant, long leastSignificant) {
+        int mask = states.length - 1;
+        int slot = hash(mostSignificant, leastSignificant) & mask;
+        while (states[slot] != 0) {
+            if (mostSignificantBits[slot] == mostSignificant && leastSignificantBits[slot] == leastSignificant) {
+                return slot;
+            }
+            slot = slot + 1 & mask;
+        }
+        return ~slot;
+    }
+
+    private void delete(int slot) {
+        int mask = states.length - 1;
+        int hole = slot;
+        for (int next = hole + 1 & mask; states[next] != 0; next = next + 1 & mask) {
+            int home = hash(mostSignificantBits[next], leastSignificantBits[next]) & mask;
+            if ((next - home & mask) >= (next - hole & mask)) {
+                mostSignificantBits[hole] = mostSignificantBits[next];
+                leastSignificantBits[hole] = leastSignificantBits[next];
+                startedAtMillis[hole] = startedAtMillis[next];
+                states[hole] = states[next];
+                hole = next;
+            }
+        }
+        states[hole] = 0;
+    }
+
+    private void resize() {
+        long[] oldMostSignificantBits = mostSignificantBits;
+        long[] oldLeastSignificantBits = leastSignificantBits;
+        long[] oldStartedAtMillis = startedAtMillis;
+        int[] oldStates = states;
+        allocate(oldStates.length << 1);
+        for (int slot = 0; slot < oldStates.length; slot++) {
+            if (oldStates[slot] != 0) {
+                int newSlot = ~find(oldMostSignificantBits[slot], oldLeastSignificantBits[slot]);
+                mostSignificantBits[newSlot] = oldMostSignificantBits[slot];
+                leastSignificantBits[newSlot] = oldLeastSignificantBits[slot];
+                startedAtMillis[newSlot] = oldStartedAtMillis[slot];
+                states[newSlot] = oldStates[slot];
+            }
+        }
+        log.info("Active order registry resized to {} slots", states.length);
+    }
+
+    private void allocate(int capacity) {
+        mostSignificantBits = new long[capacity];
+        leastSignificantBits = new long[capacity];
+        startedAtMillis = new long[capacity];
+        states = new int[capacity];
+    }
+
+    private static int hash(long mostSignificant, long leastSignificant) {
+        long h = mostSignificant * 0x9E3779B97F4A7C15L ^ leastSignificant;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static UUID parse(String orderReference) {
+        try {
+            return UUID.fromString(orderReference);
+        } catch (IllegalArgumentException e) {
+            log.warn("Order reference {} is not a UUID, not tracking it", orderReference);
+            return null;
+        }
+    }
+}
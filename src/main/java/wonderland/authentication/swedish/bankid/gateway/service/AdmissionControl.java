@@ -0,0 +1,62 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.AdmissionProperties;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Component
+public class AdmissionControl {
+
+    private final IpRateLimiter ipRateLimiter;
+    private final ActiveOrderRegistry activeOrderRegistry;
+    private final int maxInFlightOrders;
+    private final Duration capacityRetryAfter;
+    private final AtomicInteger startingOrders = new AtomicInteger();
+    private final Counter rateLimited;
+    private final Counter overCapacity;
+
+    public AdmissionControl(IpRateLimiter ipRateLimiter, ActiveOrderRegistry activeOrderRegistry,
+                            AdmissionProperties admissionProperties, MeterRegistry meterRegistry) {
+        this.ipRateLimiter = ipRateLimiter;
+        this.activeOrderRegistry = activeOrderRegistry;
+        this.maxInFlightOrders = admissionProperties.getMaxInFlightOrders();
+        this.capacityRetryAfter = admissionProperties.getCapacityRetryAfter();
+        this.rateLimited = Counter.builder("bankid.admission.rejected").tag("reason", "rateLimited").register(meterRegistry);
+        this.overCapacity = Counter.builder("bankid.admission.rejected").tag("reason", "overCapacity").register(meterRegistry);
+        Gauge.builder("bankid.admission.buckets.occupied", ipRateLimiter, IpRateLimiter::occupiedBuckets)
+                .description("Rate limit buckets that are not full")
+                .register(meterRegistry);
+        Gauge.builder("bankid.admission.orders.in.flight", this, AdmissionControl::inFlightOrders).register(meterRegistry);
+    }
+
+    public <T> Mono<T> admitNewOrder(String endUserIp, Mono<T> startOrder) {
+        return Mono.defer(() -> {
+            if (inFlightOrders() >= maxInFlightOrders) {
+                overCapacity.increment();
+                log.warn("Rejected new order for ip {}: {} orders in flight", endUserIp, inFlightOrders());
+                return Mono.error(new AdmissionRejectedException(HttpStatus.SERVICE_UNAVAILABLE, "Too many orders in flight", capacityRetryAfter));
+            }
+            long waitNanos = ipRateLimiter.tryAcquire(endUserIp);
+            if (waitNanos > 0) {
+                rateLimited.increment();
+                log.info("Rate limited new order for ip {}", endUserIp);
+                return Mono.error(new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many orders from %s".formatted(endUserIp), Duration.ofNanos(waitNanos)));
+            }
+            startingOrders.incrementAndGet();
+            return startOrder.doFinally(_ -> startingOrders.decrementAndGet());
+        });
+    }
+
+    private int inFlightOrders() {
+        return activeOrderRegistry.size() + startingOrders.get();
+    }
+}
@@ -4,44 +4,64 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.ConnectableFlux;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.client.CircuitOpenException;
+import wonderland.authentication.swedish.bankid.gateway.config.EventProperties;
 import wonderland.authentication.swedish.bankid.gateway.repository.CompletedAuthenticationRepository;
+import wonderland.authentication.swedish.bankid.gateway.repository.OrderSessionRepository;
 import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
-import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationResponse;
 import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
 import wonderland.authentication.swedish.bankid.gateway.type.CompletedAuthentication;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.service.QrCodeGenerator.QrCodes;
 import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus.COMPLETE;
-import static wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus.ERROR;
-import static wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus.FAILED;
+import static wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus.PENDING;
 import static wonderland.authentication.swedish.bankid.gateway.type.UseCase.QR;
 
 @Slf4j
 @Service
 public class BankIdService {
 
-    private static final String HMAC_SHA_256 = "HmacSHA256";
-
     private final CompletedAuthenticationRepository completedAuthenticationRepository;
+    private final OrderSessionRepository orderSessionRepository;
     private final BankIdClient bankIdClient;
-    private final Mac mac;
+    private final CollectSource collectSource;
+    private final OrderClock orderClock;
+    private final QrCodeGenerator qrCodeGenerator;
+    private final ActiveOrderRegistry activeOrderRegistry;
+    private final AdmissionControl admissionControl;
+    private final OrderCoalescer orderCoalescer;
+    private final PreparedOrders preparedOrders;
+    private final boolean changesOnly;
+    private final Map<String, SharedCollect> sharedCollects = new ConcurrentHashMap<>();
 
-    public BankIdService(CompletedAuthenticationRepository completedAuthenticationRepository, BankIdClient bankIdClient) throws NoSuchAlgorithmException {
+    public BankIdService(CompletedAuthenticationRepository completedAuthenticationRepository, OrderSessionRepository orderSessionRepository,
+                         BankIdClient bankIdClient, CollectSource collectSource, OrderClock orderClock, QrCodeGenerator qrCodeGenerator,
+                         ActiveOrderRegistry activeOrderRegistry, AdmissionControl admissionControl,
+                         OrderCoalescer orderCoalescer, PreparedOrders preparedOrders, EventProperties eventProperties) {
         this.completedAuthenticationRepository = completedAuthenticationRepository;
-        mac = Mac.getInstance(HMAC_SHA_256);
+        this.orderSessionRepository = orderSessionRepository;
         this.bankIdClient = bankIdClient;
+        this.collectSource = collectSource;
+        this.orderClock = orderClock;
+        this.qrCodeGenerator = qrCodeGenerator;
+        this.activeOrderRegistry = activeOrderRegistry;
+        this.admissionControl = admissionControl;
+        this.orderCoalescer = orderCoalescer;
+        this.preparedOrders = preparedOrders;
+        this.changesOnly = eventProperties.getChangesOnly();
     }
 
     public Mono<String> getNationalId(String orderReference) {
@@ -51,22 +71,117 @@ public class BankIdService {
                 .doOnError(throwable -> log.error("Failed to get national id for order reference {}", orderReference, throwable));
     }
 
-    public Flux<AuthenticationEvent> authenticationEventStream(String endUserIp, UseCase useCase) {
-        return bankIdClient.auth(endUserIp)
-                .flatMapMany(authRsp ->
-                        Flux.interval(Duration.ZERO, Duration.ofSeconds(1))
-                                .flatMap(sequence -> bankIdClient.collect(authRsp.orderRef())
-                                        .doOnNext(this::warnHighRisks)
-                                        .filter(colRsp -> ipCheck(useCase, endUserIp, colRsp))
-                                        .map(colRsp -> createAuthenticationEvent(authRsp, sequence, colRsp, useCase))
-                                        .switchIfEmpty(Mono.just(AuthenticationEvent.error()))
-                                )
-                )
-                .doOnError(throwable -> log.error("Unexpected error in the stream", throwable))
-                .onErrorReturn(AuthenticationEvent.error())
-                .delayUntil(this::saveCompletedAuthenticationData)
-                .takeUntil(authenticationEvent -> authenticationEvent.status() == COMPLETE || authenticationEvent.status() == FAILED || authenticationEvent.status() == ERROR)
-                .take(Duration.ofMinutes(2L));
+    public Mono<String> prepare(String endUserIp, UseCase useCase) {
+        return preparedOrders.prepare(startSession(endUserIp, useCase))
+                .doOnNext(orderSession -> log.info("Prepared order reference {} for handle {}", orderSession.orderRef(), orderSession.handle()))
+                .map(OrderSession::handle);
+    }
+
+    public Flux<AuthenticationEvent> authenticationEventStream(String endUserIp, UseCase useCase, String lastEventId, String nonce,
+                                                               String preparedHandle) {
+        Mono<OrderSession> orderSession = preparedSession(preparedHandle, endUserIp, useCase)
+                .switchIfEmpty(resumableSession(lastEventId, endUserIp, useCase))
+                .switchIfEmpty(orderCoalescer.coalesce(endUserIp, useCase, nonce, () -> startSession(endUserIp, useCase)));
+        return new OrderEventStream(orderSession, this::orderEvents, this::persistTerminalEvent, changesOnly);
+    }
+
+    private Mono<OrderSession> preparedSession(String preparedHandle, String endUserIp, UseCase useCase) {
+        if (preparedHandle == null || preparedHandle.isEmpty()) {
+            return Mono.empty();
+        }
+        return pendingSession(preparedHandle, endUserIp, useCase)
+                .filterWhen(_ -> preparedOrders.claim(preparedHandle))
+                .doOnNext(orderSession -> log.info("Attaching to prepared order reference {} for handle {}", orderSession.orderRef(), preparedHandle));
+    }
+
+    private Mono<OrderSession> resumableSession(String lastEventId, String endUserIp, UseCase useCase) {
+        int separatorIndex = lastEventId == null ? -1 : lastEventId.indexOf(AuthenticationEvent.HANDLE_SEPARATOR);
+        if (separatorIndex < 1) {
+            return Mono.empty();
+        }
+        String handle = lastEventId.substring(0, separatorIndex);
+        return pendingSession(handle, endUserIp, useCase)
+                .doOnNext(orderSession -> log.info("Resuming order reference {} for handle {}", orderSession.orderRef(), handle));
+    }
+
+    private Mono<OrderSession> pendingSession(String handle, String endUserIp, UseCase useCase) {
+        return orderSessionRepository.find(handle)
+                .filter(orderSession -> orderSession.status() == PENDING
+                        && orderSession.useCase() == useCase
+                        && orderSession.endUserIp().equals(endUserIp))
+                .onErrorResume(throwable -> {
+                    log.warn("Failed to look up order session {}, starting a new order", handle, throwable);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<OrderSession> startSession(String endUserIp, UseCase useCase) {
+        return admissionControl.admitNewOrder(endUserIp, bankIdClient.auth(endUserIp)
+                .onErrorMap(CircuitOpenException.class, e -> new AdmissionRejectedException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "BankID is unavailable", e.getRetryAfter()))
+                .map(authRsp -> OrderSession.start(authRsp, useCase, endUserIp))
+                .delayUntil(orderSession -> orderSessionRepository.save(orderSession)
+                        .onErrorResume(throwable -> Mono.empty())));
+    }
+
+    private Flux<AuthenticationEvent> orderEvents(OrderSession orderSession) {
+        Flux<CollectTick> collects = sharedCollect(orderSession.orderRef(), orderSession.useCase(), orderSession.startedAtMillis())
+                .doOnNext(tick -> warnHighRisks(tick.response()));
+        if (orderSession.useCase() == QR) {
+            QrCodes qrCodes = qrCodeGenerator.forOrder(orderSession.qrStartToken(), orderSession.qrStartSecret());
+            return collects
+                    .distinctUntilChanged(CollectTick::response, this::sameStatusAndHintCode)
+                    .materialize()
+                    .switchMap(signal -> switch (signal.getType()) {
+                        case ON_NEXT -> qrEvents(qrCodes, orderSession.startedAtMillis(), signal.get().response());
+                        case ON_ERROR -> Flux.error(signal.getThrowable());
+                        default -> Flux.empty();
+                    });
+        }
+        return collects.map(tick -> ipCheck(orderSession.useCase(), orderSession.endUserIp(), tick.response())
+                ? createAuthenticationEvent(orderClock.elapsedSecondsNow(orderSession.startedAtMillis()), tick.response(), orderSession.autoStartToken())
+                : AuthenticationEvent.error());
+    }
+
+    private Flux<AuthenticationEvent> qrEvents(QrCodes qrCodes, long startedAtMillis, CollectResponse colRsp) {
+        if (colRsp.status() == CollectResponse.Status.PENDING) {
+            return orderClock.elapsedSeconds(startedAtMillis)
+                    .map(seconds -> AuthenticationEvent.pending(String.valueOf(seconds), qrCodes.frame(seconds), colRsp.hintCode()));
+        }
+        return Flux.just(createAuthenticationEvent(orderClock.elapsedSecondsNow(startedAtMillis), colRsp, null));
+    }
+
+    private boolean sameStatusAndHintCode(CollectResponse previous, CollectResponse current) {
+        return previous.status() == current.status() && Objects.equals(previous.hintCode(), current.hintCode());
+    }
+
+    private Flux<CollectTick> sharedCollect(String orderReference, UseCase useCase, long startedAtMillis) {
+        return Flux.defer(() -> {
+                    SharedCollect sharedCollect = sharedCollects.compute(orderReference, (_, existing) -> {
+                        if (existing == null) {
+                            activeOrderRegistry.register(orderReference, useCase, startedAtMillis);
+                            existing = new SharedCollect(collectSource.schedule(orderReference, useCase, startedAtMillis)
+                                    .doOnNext(tick -> activeOrderRegistry.update(orderReference, tick.response().status(), tick.response().hintCode()))
+                                    .replay(1));
+                        }
+                        existing.subscribers++;
+                        return existing;
+                    });
+                    return sharedCollect.ticks.doFinally(_ -> release(orderReference, sharedCollect));
+                })
+                .doOnSubscribe(_ -> activeOrderRegistry.attach(orderReference))
+                .doFinally(_ -> activeOrderRegistry.detach(orderReference));
+    }
+
+    private void release(String orderReference, SharedCollect sharedCollect) {
+        sharedCollects.compute(orderReference, (_, existing) -> {
+            if (existing != sharedCollect || --existing.subscribers > 0) {
+                return existing;
+            }
+            existing.connection.dispose();
+            activeOrderRegistry.remove(orderReference);
+            return null;
+        });
     }
 
     private boolean ipCheck(UseCase useCase, String endUserIp, CollectResponse collectResponse) {
@@ -91,6 +206,11 @@ public class BankIdService {
                 .ifPresent(risk -> log.warn("Risk {} for order reference {}", risk, collectResponse.orderRef()));
     }
 
+    private Mono<Void> persistTerminalEvent(AuthenticationEvent authenticationEvent) {
+        return saveCompletedAuthenticationData(authenticationEvent)
+                .then(saveTerminalStatus(authenticationEvent));
+    }
+
     private Mono<Void> saveCompletedAuthenticationData(AuthenticationEvent authenticationEvent) {
         if (authenticationEvent.status() == COMPLETE) {
             String orderReference = authenticationEvent.completionData().orderReference();
@@ -100,15 +220,19 @@ public class BankIdService {
         return Mono.empty().then();
     }
 
-    private AuthenticationEvent createAuthenticationEvent(AuthenticationResponse authRsp, Long sequence, CollectResponse colRsp, UseCase authenticationMode) {
+    private Mono<Void> saveTerminalStatus(AuthenticationEvent authenticationEvent) {
+        if (authenticationEvent.handle() == null || !authenticationEvent.isTerminal()) {
+            return Mono.empty();
+        }
+        return orderSessionRepository.updateStatus(authenticationEvent.handle(), authenticationEvent.status())
+                .onErrorResume(throwable -> Mono.empty())
+                .then();
+    }
+
+    private AuthenticationEvent createAuthenticationEvent(long sequence, CollectResponse colRsp, String pendingData) {
         final String sequenceString = String.valueOf(sequence);
         return switch (colRsp.status()) {
-            case PENDING -> switch (authenticationMode) {
-                case QR ->
-                        createQrPendingEvent(sequenceString, authRsp.qrStartToken(), authRsp.qrStartSecret(), colRsp.hintCode());
-                case SAME_DEVICE ->
-                        AuthenticationEvent.pending(sequenceString, authRsp.autoStartToken(), colRsp.hintCode());
-            };
+            case PENDING -> AuthenticationEvent.pending(sequenceString, pendingData, colRsp.hintCode());
             case COMPLETE -> createCompletedAuthenticationEvent(colRsp, sequenceString);
             case FAILED -> AuthenticationEvent.failed(sequenceString, colRsp.hintCode());
         };
@@ -121,16 +245,14 @@ public class BankIdService {
         return AuthenticationEvent.complete(sequenceString, completionData);
     }
 
-    private AuthenticationEvent createQrPendingEvent(String sequence, String qrStartToken, String qrStartSecret, String hintCode) {
-        try {
-            mac.init(new SecretKeySpec(qrStartSecret.getBytes(StandardCharsets.US_ASCII), HMAC_SHA_256));
-        } catch (InvalidKeyException e) {
-            log.error("Invalid secret: {}", qrStartSecret, e);
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid secret", e);
+    private static final class SharedCollect {
+        private final ConnectableFlux<CollectTick> ticks;
+        private final Disposable connection;
+        private int subscribers;
+
+        private SharedCollect(ConnectableFlux<CollectTick> ticks) {
+            this.ticks = ticks;
+            this.connection = ticks.connect();
         }
-        mac.update(sequence.getBytes(StandardCharsets.US_ASCII));
-        String qrAuthCode = String.format("%064x", new BigInteger(1, mac.doFinal()));
-        String qrData = String.join(".", "bankid", qrStartToken, sequence, qrAuthCode);
-        return AuthenticationEvent.pending(sequence, qrData, hintCode);
     }
 }
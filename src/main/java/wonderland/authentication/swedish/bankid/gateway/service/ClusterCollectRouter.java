@@ -0,0 +1,234 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.ClusterProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.OrderOwnershipRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderTickMessage;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+import wonderland.authentication.swedish.bankid.gateway.type.WatchRequest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(prefix = "bankid.cluster", name = "enabled", havingValue = "true")
+public class ClusterCollectRouter implements CollectSource, DisposableBean {
+
+    private static final String TICKS_CHANNEL_PREFIX = "order-ticks:";
+    private static final String WATCH_CHANNEL_PREFIX = "node-watch:";
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    private final LocalCollectSource localCollectSource;
+    private final ClusterMembership clusterMembership;
+    private final OrderCancellationQueue orderCancellationQueue;
+    private final OrderOwnershipRepository orderOwnershipRepository;
+    private final ReactiveRedisOperations<String, String> redisOperations;
+    private final ReactiveRedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final Duration leaseTtl;
+    private final Duration heartbeatInterval;
+    private final Map<String, Flux<CollectTick>> ownedCollects = new ConcurrentHashMap<>();
+    private final Map<String, Disposable> remoteWatches = new ConcurrentHashMap<>();
+    private final Map<String, Long> remoteInterestDeadlines = new ConcurrentHashMap<>();
+    private final Disposable watchRequests;
+
+    public ClusterCollectRouter(LocalCollectSource localCollectSource, ClusterMembership clusterMembership,
+                                OrderCancellationQueue orderCancellationQueue, OrderOwnershipRepository orderOwnershipRepository, ReactiveRedisOperations<String, String> redisOperations,
+                                ReactiveRedisMessageListenerContainer listenerContainer, ObjectMapper objectMapper,
+                                ClusterProperties clusterProperties, MeterRegistry meterRegistry) {
+        this.localCollectSource = localCollectSource;
+        this.clusterMembership = clusterMembership;
+        this.orderCancellationQueue = orderCancellationQueue;
+        this.orderOwnershipRepository = orderOwnershipRepository;
+        this.redisOperations = redisOperations;
+        this.listenerContainer = listenerContainer;
+        this.objectMapper = objectMapper;
+        this.leaseTtl = clusterProperties.getLeaseTtl();
+        this.heartbeatInterval = clusterProperties.getHeartbeatInterval();
+        Gauge.builder("bankid.cluster.owned.orders", ownedCollects, Map::size).register(meterRegistry);
+        Gauge.builder("bankid.cluster.remote.watches", remoteWatches, Map::size).register(meterRegistry);
+        this.watchRequests = listenerContainer.receive(ChannelTopic.of(WATCH_CHANNEL_PREFIX + clusterMembership.nodeId()))
+                .map(ReactiveSubscription.Message::getMessage)
+                .mapNotNull(message -> decode(message, WatchRequest.class))
+                .subscribe(this::onWatchRequest, throwable -> log.error("Stopped listening for watch requests", throwable));
+    }
+
+    @Override
+    public Flux<CollectTick> schedule(String orderReference, UseCase useCase, long startedAtMillis) {
+        return Flux.defer(() -> {
+                    Flux<CollectTick> ownedCollect = ownedCollects.get(orderReference);
+                    if (ownedCollect != null) {
+                        return ownedCollect;
+                    }
+                    String owner = clusterMembership.owner(orderReference);
+                    return owner.equals(clusterMembership.nodeId())
+                            ? claim(orderReference, useCase, startedAtMillis)
+                            : watch(owner, new WatchRequest(orderReference, useCase, startedAtMillis));
+                })
+                .onErrorResume(OwnershipMovedException.class, _ -> {
+                    log.info("Ownership of order reference {} moved, routing again", orderReference);
+                    return schedule(orderReference, useCase, startedAtMillis);
+                });
+    }
+
+    @Override
+    public void destroy() {
+        watchRequests.dispose();
+        remoteWatches.values().forEach(Disposable::dispose);
+    }
+
+    private Flux<CollectTick> claim(String orderReference, UseCase useCase, long startedAtMillis) {
+        String nodeId = clusterMembership.nodeId();
+        return orderOwnershipRepository.claim(orderReference, nodeId, leaseTtl)
+                .flatMap(claimed -> claimed
+                        ? Mono.just(nodeId)
+                        : orderOwnershipRepository.owner(orderReference)
+                        .switchIfEmpty(Mono.error(new OwnershipMovedException())))
+                .flatMapMany(owner -> owner.equals(nodeId)
+                        ? owned(orderReference, useCase, startedAtMillis)
+                        : watch(owner, new WatchRequest(orderReference, useCase, startedAtMillis)));
+    }
+
+    private Flux<CollectTick> owned(String orderReference, UseCase useCase, long startedAtMillis) {
+        return ownedCollects.computeIfAbsent(orderReference, _ -> {
+            log.info("Node {} owns order reference {}", clusterMembership.nodeId(), orderReference);
+            AtomicReference<Flux<CollectTick>> ownedCollect = new AtomicReference<>();
+            AtomicBoolean leaseLost = new AtomicBoolean();
+            ownedCollect.set(localCollectSource.schedule(orderReference, useCase, startedAtMillis)
+                    .takeUntilOther(lostLease(orderReference).doOnNext(_ -> leaseLost.set(true)))
+                    .concatWith(Flux.defer(() -> {
+                        if (!leaseLost.get()) {
+                            return Flux.empty();
+                        }
+                        log.warn("Node {} lost the lease on order reference {}, stopping local collects", clusterMembership.nodeId(), orderReference);
+                        ownedCollects.remove(orderReference, ownedCollect.get());
+                        orderCancellationQueue.revoke(orderReference);
+                        return Flux.error(new OwnershipMovedException());
+                    }))
+                    .doOnNext(tick -> fireAndForget(publish(orderReference, OrderTickMessage.tick(tick))))
+                    .doOnComplete(() -> fireAndForget(publish(orderReference, OrderTickMessage.complete())))
+                    .doOnError(throwable -> {
+                        if (!(throwable instanceof OwnershipMovedException)) {
+                            fireAndForget(publish(orderReference, OrderTickMessage.error(throwable.getMessage())));
+                        }
+                    })
+                    .doFinally(_ -> {
+                        ownedCollects.remove(orderReference, ownedCollect.get());
+                        fireAndForget(orderOwnershipRepository.release(orderReference, clusterMembership.nodeId()));
+                    })
+                    .replay(1)
+                    .refCount());
+            return ownedCollect.get();
+        });
+    }
+
+    private Mono<Boolean> lostLease(String orderReference) {
+        return Flux.interval(leaseTtl.dividedBy(RENEWALS_PER_LEASE))
+                .onBackpressureDrop()
+                .concatMap(_ -> orderOwnershipRepository.renew(orderReference, clusterMembership.nodeId(), leaseTtl)
+                        .onErrorResume(throwable -> Mono.just(true)))
+                .filter(renewed -> !renewed)
+                .next();
+    }
+
+    private Flux<CollectTick> watch(String owner, WatchRequest watchRequest) {
+        String orderReference = watchRequest.orderRef();
+        return listenerContainer.receiveLater(ChannelTopic.of(TICKS_CHANNEL_PREFIX + orderReference))
+                .flatMapMany(messages -> Flux.merge(
+                        messages.map(ReactiveSubscription.Message::getMessage)
+                                .mapNotNull(message -> decode(message, OrderTickMessage.class)),
+                        Flux.interval(Duration.ZERO, heartbeatInterval)
+                                .onBackpressureDrop()
+                                .concatMap(_ -> orderOwnershipRepository.owner(orderReference)
+                                        .defaultIfEmpty(clusterMembership.owner(orderReference))
+                                        .flatMap(currentOwner -> currentOwner.equals(clusterMembership.nodeId())
+                                                ? Mono.error(new OwnershipMovedException())
+                                                : requestWatch(currentOwner, watchRequest)))
+                                .thenMany(Flux.<OrderTickMessage>empty())))
+                .<CollectTick>handle((message, sink) -> {
+                    switch (message.kind()) {
+                        case TICK -> sink.next(message.tick());
+                        case COMPLETE -> sink.complete();
+                        case ERROR -> sink.error(new IllegalStateException("Collect failed on the owning node: %s".formatted(message.error())));
+                    }
+                })
+                .doOnSubscribe(_ -> log.info("Watching order reference {} owned by node {}", orderReference, owner));
+    }
+
+    private Mono<Long> requestWatch(String owner, WatchRequest watchRequest) {
+        return encode(watchRequest)
+                .flatMap(message -> redisOperations.convertAndSend(WATCH_CHANNEL_PREFIX + owner, message));
+    }
+
+    private void onWatchRequest(WatchRequest watchRequest) {
+        String orderReference = watchRequest.orderRef();
+        remoteInterestDeadlines.put(orderReference, System.nanoTime() + leaseTtl.toNanos());
+        Disposable.Swap remoteWatch = Disposables.swap();
+        if (remoteWatches.putIfAbsent(orderReference, remoteWatch) != null) {
+            return;
+        }
+        remoteWatch.update(claim(orderReference, watchRequest.useCase(), watchRequest.startedAtMillis())
+                .takeUntilOther(Flux.interval(heartbeatInterval)
+                        .filter(_ -> System.nanoTime() - remoteInterestDeadlines.getOrDefault(orderReference, 0L) > 0))
+                .doFinally(_ -> {
+                    remoteWatches.remove(orderReference, remoteWatch);
+                    remoteInterestDeadlines.remove(orderReference);
+                })
+                .subscribe(_ -> {
+                }, throwable -> log.warn("Remote watch of order reference {} failed", orderReference, throwable)));
+    }
+
+    private Mono<Long> publish(String orderReference, OrderTickMessage message) {
+        return encode(message)
+                .flatMap(json -> redisOperations.convertAndSend(TICKS_CHANNEL_PREFIX + orderReference, json));
+    }
+
+    private void fireAndForget(Mono<?> redisCall) {
+        redisCall.subscribe(null, throwable -> log.warn("Cluster call to Redis failed", throwable));
+    }
+
+    private Mono<String> encode(Object message) {
+        try {
+            return Mono.just(objectMapper.writeValueAsString(message));
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+    }
+
+    private <T> T decode(String message, Class<T> type) {
+        try {
+            return objectMapper.readValue(message, type);
+        } catch (JsonProcessingException e) {
+            log.warn("Dropping malformed cluster message {}", message, e);
+            return null;
+        }
+    }
+
+    private static final class OwnershipMovedException extends RuntimeException {
+        private OwnershipMovedException() {
+            super(null, null, false, false);
+        }
+    }
+}
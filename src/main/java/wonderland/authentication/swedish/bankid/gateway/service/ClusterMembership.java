@@ -0,0 +1,74 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.ClusterProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.ClusterNodeRepository;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "bankid.cluster", name = "enabled", havingValue = "true")
+public class ClusterMembership implements DisposableBean {
+
+    private final ClusterNodeRepository clusterNodeRepository;
+    private final String nodeId;
+    private final int virtualNodes;
+    private final Duration leaseTtl;
+    private final Disposable heartbeat;
+    private volatile ConsistentHashRing ring;
+
+    public ClusterMembership(ClusterProperties clusterProperties, ClusterNodeRepository clusterNodeRepository, MeterRegistry meterRegistry) {
+        this.clusterNodeRepository = clusterNodeRepository;
+        this.nodeId = clusterProperties.getNodeId() == null || clusterProperties.getNodeId().isBlank()
+                ? UUID.randomUUID().toString()
+                : clusterProperties.getNodeId();
+        this.virtualNodes = clusterProperties.getVirtualNodes();
+        this.leaseTtl = clusterProperties.getLeaseTtl();
+        this.ring = new ConsistentHashRing(Set.of(nodeId), virtualNodes);
+        Gauge.builder("bankid.cluster.nodes", () -> ring.nodes().size()).register(meterRegistry);
+        this.heartbeat = Flux.interval(Duration.ZERO, clusterProperties.getHeartbeatInterval())
+                .onBackpressureDrop()
+                .concatMap(_ -> clusterNodeRepository.heartbeat(nodeId, leaseTtl)
+                        .thenMany(clusterNodeRepository.liveNodes())
+                        .collect(TreeSet<String>::new, Set::add)
+                        .onErrorResume(throwable -> Mono.empty()))
+                .subscribe(this::updateRing);
+        log.info("Joined cluster as node {}", nodeId);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public String owner(String orderReference) {
+        return ring.owner(orderReference);
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.dispose();
+        clusterNodeRepository.remove(nodeId)
+                .onErrorResume(throwable -> Mono.empty())
+                .block(leaseTtl);
+    }
+
+    private void updateRing(Set<String> liveNodes) {
+        liveNodes.add(nodeId);
+        if (!liveNodes.equals(ring.nodes())) {
+            log.info("Cluster membership changed from {} to {}", ring.nodes(), liveNodes);
+            ring = new ConsistentHashRing(liveNodes, virtualNodes);
+        }
+    }
+}
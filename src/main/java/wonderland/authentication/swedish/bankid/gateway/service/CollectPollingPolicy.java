@@ -0,0 +1,46 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.springframework.stereotype.Component;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+@Component
+public class CollectPollingPolicy {
+
+    private final Duration defaultInterval;
+    private final Map<UseCase, Duration> useCaseIntervals = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Map<String, Duration>> hintCodeIntervals = new EnumMap<>(UseCase.class);
+
+    public CollectPollingPolicy(CollectProperties collectProperties) {
+        this.defaultInterval = collectProperties.getInterval();
+        Optional.ofNullable(collectProperties.getUseCaseIntervals()).ifPresent(useCaseIntervals::putAll);
+        Optional.ofNullable(collectProperties.getHintCodeIntervals())
+                .ifPresent(intervals -> intervals.forEach((useCase, byHintCode) -> {
+                    Map<String, Duration> caseInsensitive = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                    caseInsensitive.putAll(byHintCode);
+                    hintCodeIntervals.put(useCase, caseInsensitive);
+                }));
+    }
+
+    public Duration defaultInterval() {
+        return defaultInterval;
+    }
+
+    public Duration interval(UseCase useCase, String hintCode) {
+        Duration useCaseInterval = useCaseIntervals.getOrDefault(useCase, defaultInterval);
+        if (hintCode == null) {
+            return useCaseInterval;
+        }
+        Map<String, Duration> byHintCode = hintCodeIntervals.get(useCase);
+        if (byHintCode == null) {
+            return useCaseInterval;
+        }
+        return byHintCode.getOrDefault(hintCode, useCaseInterval);
+    }
+}
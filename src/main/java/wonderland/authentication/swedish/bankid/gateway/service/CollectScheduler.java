@@ -0,0 +1,243 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdCircuitBreaker;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.client.CircuitOpenException;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "bankid.collect", name = "engine", havingValue = "reactor", matchIfMissing = true)
+public class CollectScheduler implements LocalCollectSource, DisposableBean {
+
+    private final BankIdClient bankIdClient;
+    private final CollectPollingPolicy collectPollingPolicy;
+    private final OrderCancellationQueue orderCancellationQueue;
+    private final HashedWheelTimer timer;
+    private final long orderTimeoutNanos;
+    private final Map<String, ScheduledCollect> scheduledCollects = new ConcurrentHashMap<>();
+    private final Map<UseCase, Counter> collectCalls = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectTicksSkipped = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectTimeouts = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectErrors = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectCircuitOpen = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, DistributionSummary> collectCallsPerOrder = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, DistributionSummary> collectCallsSavedPerOrder = new EnumMap<>(UseCase.class);
+
+    public CollectScheduler(BankIdClient bankIdClient, CollectProperties collectProperties,
+                            CollectPollingPolicy collectPollingPolicy, OrderCancellationQueue orderCancellationQueue,
+                            MeterRegistry meterRegistry) {
+        this.bankIdClient = bankIdClient;
+        this.collectPollingPolicy = collectPollingPolicy;
+        this.orderCancellationQueue = orderCancellationQueue;
+        this.orderTimeoutNanos = collectProperties.getOrderTimeout().toNanos();
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("collect-scheduler", true),
+                collectProperties.getTick().toNanos(), TimeUnit.NANOSECONDS, collectProperties.getWheelSize());
+        for (UseCase useCase : UseCase.values()) {
+            collectCalls.put(useCase, Counter.builder("bankid.collect.calls")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectTicksSkipped.put(useCase, Counter.builder("bankid.collect.skipped")
+                    .description("Collect ticks skipped because the previous collect was still in flight")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectTimeouts.put(useCase, Counter.builder("bankid.collect.timeouts")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectErrors.put(useCase, Counter.builder("bankid.collect.errors")
+                    .description("Transient collect failures retried on the next tick")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectCircuitOpen.put(useCase, Counter.builder("bankid.collect.circuit.open")
+                    .description("Collect ticks skipped because the BankID circuit was open")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectCallsPerOrder.put(useCase, DistributionSummary.builder("bankid.collect.calls.per.order")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectCallsSavedPerOrder.put(useCase, DistributionSummary.builder("bankid.collect.calls.saved.per.order")
+                    .description("Collect calls saved compared to polling every default interval")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    @Override
+    public Flux<CollectTick> schedule(String orderReference, UseCase useCase, long startedAtMillis) {
+        return Flux.defer(() -> {
+            ScheduledCollect scheduledCollect = new ScheduledCollect(orderReference, useCase, startedAtMillis);
+            if (scheduledCollects.putIfAbsent(orderReference, scheduledCollect) != null) {
+                return Flux.error(new IllegalStateException("Collect is already scheduled for order reference %s".formatted(orderReference)));
+            }
+            orderCancellationQueue.revoke(orderReference);
+            scheduledCollect.start();
+            return scheduledCollect.sink.asFlux()
+                    .doFinally(signalType -> scheduledCollect.abandon(signalType == SignalType.CANCEL));
+        });
+    }
+
+    public int activeOrders() {
+        return scheduledCollects.size();
+    }
+
+    @Override
+    public void destroy() {
+        timer.stop().forEach(timeout -> ((ScheduledCollect) timeout.task()).complete());
+    }
+
+    private void recordCompletedOrder(UseCase useCase, long calls, long elapsedNanos) {
+        long baselineCalls = elapsedNanos / collectPollingPolicy.defaultInterval().toNanos() + 1;
+        collectCallsPerOrder.get(useCase).record(calls);
+        collectCallsSavedPerOrder.get(useCase).record(Math.max(baselineCalls - calls, 0));
+    }
+
+    private final class ScheduledCollect implements TimerTask {
+        private final String orderReference;
+        private final UseCase useCase;
+        private final Sinks.Many<CollectTick> sink = Sinks.many().unicast().onBackpressureBuffer();
+        private final long startNanos;
+        private long sequence;
+        private long nextFireNanos = System.nanoTime();
+        private volatile String hintCode;
+        private volatile CollectResponse.Status status;
+        private volatile boolean stopped;
+        private volatile boolean collectInFlight;
+        private volatile Timeout timeout;
+        private volatile Disposable inFlightCollect;
+
+        private ScheduledCollect(String orderReference, UseCase useCase, long startedAtMillis) {
+            this.orderReference = orderReference;
+            this.useCase = useCase;
+            this.startNanos = nextFireNanos - TimeUnit.MILLISECONDS.toNanos(Math.max(System.currentTimeMillis() - startedAtMillis, 0));
+        }
+
+        private void start() {
+            timeout = timer.newTimeout(this, 0, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public synchronized void run(Timeout firedTimeout) {
+            if (stopped) {
+                return;
+            }
+            long now = System.nanoTime();
+            long deadline = startNanos + orderTimeoutNanos;
+            if (now - deadline >= 0) {
+                log.info("Collect for order reference {} timed out", orderReference);
+                orderCancellationQueue.cancel(orderReference);
+                complete();
+                return;
+            }
+            nextFireNanos += collectPollingPolicy.interval(useCase, hintCode).toNanos();
+            long nextFire = nextFireNanos - deadline < 0 ? nextFireNanos : deadline;
+            timeout = timer.newTimeout(this, Math.max(nextFire - now, 0), TimeUnit.NANOSECONDS);
+            if (collectInFlight) {
+                collectTicksSkipped.get(useCase).increment();
+                return;
+            }
+            long tickSequence = sequence++;
+            collectInFlight = true;
+            collectCalls.get(useCase).increment();
+            Disposable collect = bankIdClient.collect(orderReference, Duration.ofNanos(deadline - now))
+                    .switchIfEmpty(Mono.error(new IllegalStateException("Empty collect response for order reference %s".formatted(orderReference))))
+                    .subscribe(collectResponse -> emit(new CollectTick(tickSequence, collectResponse)), this::fail);
+            if (stopped) {
+                collect.dispose();
+            } else {
+                inFlightCollect = collect;
+            }
+        }
+
+        private synchronized void emit(CollectTick collectTick) {
+            collectInFlight = false;
+            if (stopped) {
+                return;
+            }
+            hintCode = collectTick.response().hintCode();
+            status = collectTick.response().status();
+            sink.tryEmitNext(collectTick);
+            if (collectTick.response().status() != CollectResponse.Status.PENDING) {
+                complete();
+            }
+        }
+
+        private synchronized void fail(Throwable throwable) {
+            collectInFlight = false;
+            if (stopped) {
+                return;
+            }
+            if (throwable instanceof CircuitOpenException) {
+                collectCircuitOpen.get(useCase).increment();
+                return;
+            }
+            if (BankIdClient.isTimeout(throwable)) {
+                log.info("Collect for order reference {} timed out, retrying on the next tick", orderReference);
+                collectTimeouts.get(useCase).increment();
+                return;
+            }
+            if (BankIdCircuitBreaker.isTransient(throwable)) {
+                log.warn("Collect for order reference {} failed, retrying on the next tick", orderReference, throwable);
+                collectErrors.get(useCase).increment();
+                return;
+            }
+            stop();
+            orderCancellationQueue.cancel(orderReference);
+            sink.tryEmitError(throwable);
+        }
+
+        private synchronized void complete() {
+            stop();
+            sink.tryEmitComplete();
+        }
+
+        private synchronized void abandon(boolean cancelled) {
+            if (cancelled && !stopped && (status == null || status == CollectResponse.Status.PENDING)) {
+                orderCancellationQueue.cancelAfterGracePeriod(orderReference);
+            }
+            stop();
+        }
+
+        private void stop() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (scheduledCollects.remove(orderReference, this)) {
+                recordCompletedOrder(useCase, sequence, System.nanoTime() - startNanos);
+            }
+            Timeout currentTimeout = timeout;
+            if (currentTimeout != null) {
+                currentTimeout.cancel();
+            }
+            Disposable currentCollect = inFlightCollect;
+            if (currentCollect != null) {
+                currentCollect.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import reactor.core.publisher.Flux;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+public interface CollectSource {
+    Flux<CollectTick> schedule(String orderReference, UseCase useCase, long startedAtMillis);
+}
@@ -0,0 +1,61 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+public final class ConsistentHashRing {
+
+    private final Set<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        this.nodes = Set.copyOf(nodes);
+        record Point(long hash, String node) {
+        }
+        Point[] ring = this.nodes.stream()
+                .flatMap(node -> IntStream.range(0, virtualNodes)
+                        .mapToObj(replica -> new Point(hash(node + '#' + replica), node)))
+                .sorted(Comparator.comparingLong(Point::hash).thenComparing(Point::node))
+                .toArray(Point[]::new);
+        this.points = new long[ring.length];
+        this.owners = new String[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = ring[i].hash();
+            owners[i] = ring[i].node();
+        }
+    }
+
+    public String owner(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = ~index;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    static long hash(String value) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
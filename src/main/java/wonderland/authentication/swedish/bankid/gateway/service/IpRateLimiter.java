@@ -0,0 +1,58 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.springframework.stereotype.Component;
+import wonderland.authentication.swedish.bankid.gateway.config.AdmissionProperties;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+@Component
+public class IpRateLimiter {
+
+    private final AtomicLongArray theoreticalArrivals;
+    private final int mask;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final long epochNanos = System.nanoTime();
+
+    public IpRateLimiter(AdmissionProperties admissionProperties) {
+        int stripes = Integer.highestOneBit(Math.max(admissionProperties.getStripes() - 1, 1)) << 1;
+        this.theoreticalArrivals = new AtomicLongArray(stripes);
+        this.mask = stripes - 1;
+        this.emissionIntervalNanos = admissionProperties.getRefillPeriod().toNanos();
+        this.burstToleranceNanos = emissionIntervalNanos * (admissionProperties.getBurst() - 1);
+    }
+
+    public long tryAcquire(String endUserIp) {
+        return tryAcquire(endUserIp, System.nanoTime() - epochNanos);
+    }
+
+    public int occupiedBuckets() {
+        long now = System.nanoTime() - epochNanos;
+        int occupied = 0;
+        for (int stripe = 0; stripe < theoreticalArrivals.length(); stripe++) {
+            if (theoreticalArrivals.get(stripe) > now) {
+                occupied++;
+            }
+        }
+        return occupied;
+    }
+
+    long tryAcquire(String endUserIp, long now) {
+        int stripe = stripe(endUserIp);
+        while (true) {
+            long theoreticalArrival = theoreticalArrivals.get(stripe);
+            long waitNanos = theoreticalArrival - burstToleranceNanos - now;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (theoreticalArrivals.compareAndSet(stripe, theoreticalArrival, Math.max(theoreticalArrival, now) + emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private int stripe(String endUserIp) {
+        int h = endUserIp.hashCode() * 0x9E3779B1;
+        return (h ^ h >>> 16) & mask;
+    }
+}
@@ -0,0 +1,4 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+public interface LocalCollectSource extends CollectSource {
+}
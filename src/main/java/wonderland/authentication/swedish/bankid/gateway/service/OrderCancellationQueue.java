@@ -0,0 +1,137 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.config.CancelProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.PendingCancelRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+@Component
+public class OrderCancellationQueue implements DisposableBean {
+
+    private static final Duration MARKER_TTL_MARGIN = Duration.ofSeconds(30);
+
+    private final BankIdClient bankIdClient;
+    private final PendingCancelRepository pendingCancelRepository;
+    private final Duration disconnectGracePeriod;
+    private final Sinks.Many<String> queue;
+    private final Map<String, Disposable> delayedCancels = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+    private final Counter cancelled;
+    private final Counter failed;
+
+    public OrderCancellationQueue(BankIdClient bankIdClient, PendingCancelRepository pendingCancelRepository, CancelProperties cancelProperties,
+                                  MeterRegistry meterRegistry) {
+        this.bankIdClient = bankIdClient;
+        this.pendingCancelRepository = pendingCancelRepository;
+        this.disconnectGracePeriod = cancelProperties.getDisconnectGracePeriod();
+        this.meterRegistry = meterRegistry;
+        this.queue = Sinks.many().multicast().onBackpressureBuffer(cancelProperties.getQueueCapacity(), false);
+        this.cancelled = Counter.builder("bankid.cancel.calls").tag("outcome", "success").register(meterRegistry);
+        this.failed = Counter.builder("bankid.cancel.calls").tag("outcome", "failure").register(meterRegistry);
+        Gauge.builder("bankid.cancel.queued", queued, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("bankid.cancel.delayed", delayedCancels, Map::size).register(meterRegistry);
+        queue.asFlux()
+                .bufferTimeout(cancelProperties.getBatchSize(), cancelProperties.getBatchWindow(), true)
+                .concatMap(batch -> cancelBatch(batch, cancelProperties.getConcurrency()))
+                .doOnError(throwable -> log.error("Cancellation pipeline failed, resubscribing", throwable))
+                .retry()
+                .subscribe();
+    }
+
+    public void cancel(String orderReference) {
+        Disposable delayedCancel = delayedCancels.remove(orderReference);
+        if (delayedCancel != null) {
+            delayedCancel.dispose();
+        }
+        enqueue(orderReference);
+    }
+
+    public void cancelAfterGracePeriod(String orderReference) {
+        String token = UUID.randomUUID().toString();
+        Disposable delayedCancel = pendingCancelRepository.mark(orderReference, token, disconnectGracePeriod.plus(MARKER_TTL_MARGIN))
+                .onErrorReturn(false)
+                .delayElement(disconnectGracePeriod)
+                .flatMap(marked -> marked
+                        ? pendingCancelRepository.confirm(orderReference, token).onErrorReturn(true)
+                        : Mono.just(true))
+                .subscribe(confirmed -> {
+                    if (delayedCancels.remove(orderReference) == null) {
+                        return;
+                    }
+                    if (confirmed) {
+                        enqueue(orderReference);
+                    } else {
+                        log.info("Order reference {} was resumed on another node, not cancelling", orderReference);
+                    }
+                });
+        Disposable previous = delayedCancels.put(orderReference, delayedCancel);
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    public boolean revoke(String orderReference) {
+        pendingCancelRepository.revoke(orderReference)
+                .subscribe(_ -> {
+                }, throwable -> log.warn("Failed to revoke pending cancellation of order reference {}", orderReference, throwable));
+        Disposable delayedCancel = delayedCancels.remove(orderReference);
+        if (delayedCancel == null) {
+            return false;
+        }
+        delayedCancel.dispose();
+        log.info("Revoked pending cancellation of order reference {}", orderReference);
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        delayedCancels.keySet().forEach(this::cancel);
+        queue.tryEmitComplete();
+    }
+
+    private void enqueue(String orderReference) {
+        Sinks.EmitResult result;
+        while ((result = queue.tryEmitNext(orderReference)) == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            Thread.onSpinWait();
+        }
+        if (result.isSuccess()) {
+            queued.incrementAndGet();
+        } else {
+            Counter.builder("bankid.cancel.dropped")
+                    .description("Cancellations the queue did not accept")
+                    .tag("reason", result.name().toLowerCase())
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("Dropped cancellation of order reference {}: {}", orderReference, result);
+        }
+    }
+
+    private Flux<Void> cancelBatch(List<String> orderReferences, int concurrency) {
+        queued.addAndGet(-orderReferences.size());
+        return Flux.fromIterable(orderReferences)
+                .flatMap(orderReference -> Mono.defer(() -> bankIdClient.cancel(orderReference))
+                        .doOnSuccess(_ -> cancelled.increment())
+                        .onErrorResume(throwable -> {
+                            failed.increment();
+                            return Mono.empty();
+                        }), concurrency);
+    }
+}
@@ -0,0 +1,30 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class OrderClock {
+
+    private final Flux<Long> ticks;
+
+    public OrderClock(CollectProperties collectProperties) {
+        this.ticks = Flux.interval(collectProperties.getTick())
+                .onBackpressureDrop()
+                .share();
+    }
+
+    public Flux<Long> elapsedSeconds(long startedAtMillis) {
+        return ticks.onBackpressureLatest()
+                .startWith(0L)
+                .map(_ -> elapsedSecondsNow(startedAtMillis))
+                .distinctUntilChanged();
+    }
+
+    public long elapsedSecondsNow(long startedAtMillis) {
+        return TimeUnit.MILLISECONDS.toSeconds(Math.max(System.currentTimeMillis() - startedAtMillis, 0));
+    }
+}
@@ -0,0 +1,85 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.CoalescingProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+@Slf4j
+@Component
+public class OrderCoalescer {
+
+    private final ActiveOrderRegistry activeOrderRegistry;
+    private final Duration window;
+    private final Map<CoalescingKey, RecentStart> recentStarts = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    public OrderCoalescer(ActiveOrderRegistry activeOrderRegistry, CoalescingProperties coalescingProperties, MeterRegistry meterRegistry) {
+        this.activeOrderRegistry = activeOrderRegistry;
+        this.window = coalescingProperties.getWindow();
+        this.coalesced = Counter.builder("bankid.auth.coalesced")
+                .description("Authentication streams attached to an order started within the coalescing window")
+                .register(meterRegistry);
+        Gauge.builder("bankid.auth.coalescing.keys", recentStarts, Map::size).register(meterRegistry);
+    }
+
+    public Mono<OrderSession> coalesce(String endUserIp, UseCase useCase, String nonce, Supplier<Mono<OrderSession>> startSession) {
+        if (window.isZero() || nonce == null || nonce.isEmpty()) {
+            return Mono.defer(startSession);
+        }
+        return Mono.defer(() -> {
+            CoalescingKey key = new CoalescingKey(endUserIp, useCase, nonce);
+            RecentStart[] created = new RecentStart[1];
+            RecentStart recentStart = recentStarts.compute(key, (_, existing) -> {
+                if (existing != null && isStillPending(existing)) {
+                    return existing;
+                }
+                created[0] = new RecentStart(key, startSession.get());
+                return created[0];
+            });
+            if (created[0] == null) {
+                coalesced.increment();
+                log.info("Attaching stream for ip {} and use case {} to an order started within {}", endUserIp, useCase, window);
+            } else {
+                Mono.delay(window).subscribe(_ -> recentStarts.remove(key, recentStart));
+            }
+            return recentStart.session;
+        });
+    }
+
+    private boolean isStillPending(RecentStart recentStart) {
+        OrderSession orderSession = recentStart.orderSession;
+        if (orderSession == null) {
+            return true;
+        }
+        return activeOrderRegistry.find(orderSession.orderRef())
+                .map(activeOrder -> activeOrder.status() == null || activeOrder.status() == CollectResponse.Status.PENDING)
+                .orElse(false);
+    }
+
+    private record CoalescingKey(String endUserIp, UseCase useCase, String nonce) {
+    }
+
+    private final class RecentStart {
+        private final Mono<OrderSession> session;
+        private volatile OrderSession orderSession;
+
+        private RecentStart(CoalescingKey key, Mono<OrderSession> startSession) {
+            this.session = startSession
+                    .doOnNext(started -> orderSession = started)
+                    .doOnError(_ -> recentStarts.remove(key, this))
+                    .cache();
+        }
+    }
+}
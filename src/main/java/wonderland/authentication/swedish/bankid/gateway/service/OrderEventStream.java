@@ -0,0 +1,196 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+@Slf4j
+final class OrderEventStream extends Flux<AuthenticationEvent> {
+
+    private final Mono<OrderSession> orderSession;
+    private final Function<OrderSession, Flux<AuthenticationEvent>> orderEvents;
+    private final Function<AuthenticationEvent, Mono<Void>> terminalEventPersistence;
+    private final boolean changesOnly;
+
+    OrderEventStream(Mono<OrderSession> orderSession, Function<OrderSession, Flux<AuthenticationEvent>> orderEvents,
+                     Function<AuthenticationEvent, Mono<Void>> terminalEventPersistence, boolean changesOnly) {
+        this.orderSession = orderSession;
+        this.orderEvents = orderEvents;
+        this.terminalEventPersistence = terminalEventPersistence;
+        this.changesOnly = changesOnly;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super AuthenticationEvent> actual) {
+        OrderEventSubscriber subscriber = new OrderEventSubscriber(actual);
+        actual.onSubscribe(subscriber);
+        subscriber.start();
+    }
+
+    static boolean sameContent(AuthenticationEvent previous, AuthenticationEvent current) {
+        return previous.status() == current.status()
+                && Objects.equals(previous.hintCode(), current.hintCode())
+                && Objects.equals(previous.data(), current.data());
+    }
+
+    private static final AtomicLongFieldUpdater<OrderEventSubscriber> REQUESTED =
+            AtomicLongFieldUpdater.newUpdater(OrderEventSubscriber.class, "requested");
+    private static final AtomicIntegerFieldUpdater<OrderEventSubscriber> WIP =
+            AtomicIntegerFieldUpdater.newUpdater(OrderEventSubscriber.class, "wip");
+
+    private final class OrderEventSubscriber implements CoreSubscriber<AuthenticationEvent>, Subscription {
+        private final CoreSubscriber<? super AuthenticationEvent> actual;
+        private final Operators.DeferredSubscription upstream = new Operators.DeferredSubscription();
+        private volatile long requested;
+        private volatile int wip;
+        private volatile Disposable pending;
+        private volatile AuthenticationEvent terminalEvent;
+        private volatile boolean cancelled;
+        private boolean sessionStarted;
+        private String handle;
+        private AuthenticationEvent previous;
+        private boolean done;
+
+        private OrderEventSubscriber(CoreSubscriber<? super AuthenticationEvent> actual) {
+            this.actual = actual;
+        }
+
+        private void start() {
+            pending = orderSession.subscribe(this::onOrderSession, this::onOrderSessionError, this::onOrderSessionEmpty);
+        }
+
+        private void onOrderSession(OrderSession orderSession) {
+            sessionStarted = true;
+            handle = orderSession.handle();
+            Flux<AuthenticationEvent> authenticationEvents;
+            try {
+                authenticationEvents = orderEvents.apply(orderSession);
+            } catch (RuntimeException e) {
+                onError(e);
+                return;
+            }
+            authenticationEvents.subscribe(this);
+        }
+
+        private void onOrderSessionError(Throwable throwable) {
+            if (throwable instanceof AdmissionRejectedException) {
+                done = true;
+                actual.onError(throwable);
+                return;
+            }
+            onError(throwable);
+        }
+
+        private void onOrderSessionEmpty() {
+            if (!sessionStarted && !done) {
+                done = true;
+                actual.onComplete();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream.set(subscription);
+        }
+
+        @Override
+        public void onNext(AuthenticationEvent authenticationEvent) {
+            if (done) {
+                return;
+            }
+            AuthenticationEvent event = authenticationEvent.withHandle(handle);
+            if (event.isTerminal()) {
+                upstream.cancel();
+                persistAndFinish(event);
+                return;
+            }
+            if (changesOnly && previous != null && sameContent(previous, event)) {
+                upstream.request(1);
+                return;
+            }
+            previous = event;
+            Operators.produced(REQUESTED, this, 1);
+            actual.onNext(event);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (done) {
+                return;
+            }
+            log.error("Unexpected error in the stream", throwable);
+            persistAndFinish(AuthenticationEvent.error().withHandle(handle));
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            actual.onComplete();
+        }
+
+        private void persistAndFinish(AuthenticationEvent event) {
+            done = true;
+            pending = terminalEventPersistence.apply(event)
+                    .subscribe(null, this::onPersistenceError, () -> {
+                        terminalEvent = event;
+                        drain();
+                    });
+        }
+
+        private void onPersistenceError(Throwable throwable) {
+            if (!cancelled) {
+                actual.onError(throwable);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                Operators.addCap(REQUESTED, this, n);
+                upstream.request(n);
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            upstream.cancel();
+            Disposable current = pending;
+            if (current != null) {
+                current.dispose();
+            }
+        }
+
+        private void drain() {
+            if (WIP.getAndIncrement(this) != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                AuthenticationEvent event = terminalEvent;
+                if (!cancelled && event != null && requested > 0) {
+                    terminalEvent = null;
+                    cancelled = true;
+                    actual.onNext(event);
+                    actual.onComplete();
+                }
+                missed = WIP.addAndGet(this, -missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.PrepareProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.OrderSessionRepository;
+import wonderland.authentication.swedish.bankid.gateway.repository.PreparedOrderRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+
+import java.time.Duration;
+
+@Slf4j
+@Component
+public class PreparedOrders {
+
+    private static final Duration MARKER_TTL_MARGIN = Duration.ofSeconds(30);
+
+    private final PreparedOrderRepository preparedOrderRepository;
+    private final OrderSessionRepository orderSessionRepository;
+    private final OrderCancellationQueue orderCancellationQueue;
+    private final Duration ttl;
+    private final Counter prepared;
+    private final Counter claimed;
+    private final Counter expired;
+
+    public PreparedOrders(PreparedOrderRepository preparedOrderRepository, OrderSessionRepository orderSessionRepository,
+                          OrderCancellationQueue orderCancellationQueue, PrepareProperties prepareProperties, MeterRegistry meterRegistry) {
+        this.preparedOrderRepository = preparedOrderRepository;
+        this.orderSessionRepository = orderSessionRepository;
+        this.orderCancellationQueue = orderCancellationQueue;
+        this.ttl = prepareProperties.getTtl();
+        this.prepared = Counter.builder("bankid.prepare.orders").tag("outcome", "prepared").register(meterRegistry);
+        this.claimed = Counter.builder("bankid.prepare.orders").tag("outcome", "claimed").register(meterRegistry);
+        this.expired = Counter.builder("bankid.prepare.orders").tag("outcome", "expired").register(meterRegistry);
+    }
+
+    public Mono<OrderSession> prepare(Mono<OrderSession> startSession) {
+        return startSession
+                .delayUntil(orderSession -> preparedOrderRepository.save(orderSession.handle(), orderSession.orderRef(), ttl.plus(MARKER_TTL_MARGIN))
+                        .doOnError(_ -> orderCancellationQueue.cancel(orderSession.orderRef())))
+                .doOnNext(orderSession -> {
+                    prepared.increment();
+                    expireUnclaimed(orderSession);
+                });
+    }
+
+    public Mono<Boolean> claim(String handle) {
+        return preparedOrderRepository.claim(handle)
+                .doOnNext(isClaimed -> {
+                    if (isClaimed) {
+                        claimed.increment();
+                        log.info("Claimed prepared order for handle {}", handle);
+                    }
+                })
+                .onErrorReturn(false);
+    }
+
+    private void expireUnclaimed(OrderSession orderSession) {
+        Mono.delay(ttl)
+                .flatMap(_ -> preparedOrderRepository.claim(orderSession.handle()))
+                .filter(Boolean::booleanValue)
+                .delayUntil(_ -> orderSessionRepository.updateStatus(orderSession.handle(), AuthenticationStatus.FAILED)
+                        .onErrorResume(_ -> Mono.empty()))
+                .subscribe(_ -> {
+                    expired.increment();
+                    log.info("Prepared order reference {} was not claimed within {}, cancelling", orderSession.orderRef(), ttl);
+                    orderCancellationQueue.cancel(orderSession.orderRef());
+                }, throwable -> log.warn("Failed to expire prepared order reference {}", orderSession.orderRef(), throwable));
+    }
+}
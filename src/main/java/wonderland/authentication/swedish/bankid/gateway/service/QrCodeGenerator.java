@@ -0,0 +1,100 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import wonderland.authentication.swedish.bankid.gateway.config.QrProperties;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+@Slf4j
+@Component
+public class QrCodeGenerator {
+
+    private static final String HMAC_SHA_256 = "HmacSHA256";
+    private static final byte[] BANKID_PREFIX = "bankid.".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_SECONDS_DIGITS = 19;
+
+    private final int precomputedFrames;
+
+    public QrCodeGenerator(QrProperties qrProperties) {
+        this.precomputedFrames = qrProperties.getPrecomputedFrames();
+    }
+
+    public QrCodes forOrder(String qrStartToken, String qrStartSecret) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA_256);
+            mac.init(new SecretKeySpec(qrStartSecret.getBytes(StandardCharsets.US_ASCII), HMAC_SHA_256));
+            return new QrCodes(mac, qrStartToken, precomputedFrames);
+        } catch (GeneralSecurityException e) {
+            log.error("Invalid secret: {}", qrStartSecret, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid secret", e);
+        }
+    }
+
+    public static final class QrCodes {
+        private final Mac mac;
+        private final byte[] frameBuffer;
+        private final int secondsOffset;
+        private final byte[] digest;
+        private final String[] frames;
+        private long firstFrameSeconds = -1;
+
+        private QrCodes(Mac mac, String qrStartToken, int precomputedFrames) {
+            this.mac = mac;
+            byte[] token = qrStartToken.getBytes(StandardCharsets.US_ASCII);
+            this.secondsOffset = BANKID_PREFIX.length + token.length + 1;
+            this.digest = new byte[mac.getMacLength()];
+            this.frameBuffer = new byte[secondsOffset + MAX_SECONDS_DIGITS + 1 + digest.length * 2];
+            System.arraycopy(BANKID_PREFIX, 0, frameBuffer, 0, BANKID_PREFIX.length);
+            System.arraycopy(token, 0, frameBuffer, BANKID_PREFIX.length, token.length);
+            frameBuffer[secondsOffset - 1] = '.';
+            this.frames = new String[precomputedFrames];
+        }
+
+        public synchronized String frame(long seconds) {
+            if (firstFrameSeconds < 0 || seconds < firstFrameSeconds || seconds - firstFrameSeconds >= frames.length) {
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = computeFrame(seconds + i);
+                }
+                firstFrameSeconds = seconds;
+            }
+            return frames[(int) (seconds - firstFrameSeconds)];
+        }
+
+        private String computeFrame(long seconds) {
+            int position = writeDigits(seconds, frameBuffer, secondsOffset);
+            mac.update(frameBuffer, secondsOffset, position - secondsOffset);
+            try {
+                mac.doFinal(digest, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("Digest buffer is too small for %s".formatted(mac.getAlgorithm()), e);
+            }
+            frameBuffer[position++] = '.';
+            for (byte b : digest) {
+                frameBuffer[position++] = HEX_DIGITS[(b >> 4) & 0xF];
+                frameBuffer[position++] = HEX_DIGITS[b & 0xF];
+            }
+            return new String(frameBuffer, 0, position, StandardCharsets.US_ASCII);
+        }
+
+        private static int writeDigits(long value, byte[] buffer, int offset) {
+            int length = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                length++;
+            }
+            long rest = value;
+            for (int i = offset + length - 1; i >= offset; i--) {
+                buffer[i] = (byte) ('0' + rest % 10);
+                rest /= 10;
+            }
+            return offset + length;
+        }
+    }
+}
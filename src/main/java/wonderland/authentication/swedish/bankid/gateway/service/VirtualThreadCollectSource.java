@@ -0,0 +1,234 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdCircuitBreaker;
+import wonderland.authentication.swedish.bankid.gateway.client.BlockingBankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.client.CircuitOpenException;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "bankid.collect", name = "engine", havingValue = "virtual-threads")
+public class VirtualThreadCollectSource implements LocalCollectSource, DisposableBean {
+
+    private final BlockingBankIdClient blockingBankIdClient;
+    private final CollectPollingPolicy collectPollingPolicy;
+    private final OrderCancellationQueue orderCancellationQueue;
+    private final long orderTimeoutNanos;
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("collect-", 0).factory();
+    private final Map<String, PollingOrder> pollingOrders = new ConcurrentHashMap<>();
+    private final Map<UseCase, Counter> collectCalls = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectTicksSkipped = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectTimeouts = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectErrors = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, Counter> collectCircuitOpen = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, DistributionSummary> collectCallsPerOrder = new EnumMap<>(UseCase.class);
+    private final Map<UseCase, DistributionSummary> collectCallsSavedPerOrder = new EnumMap<>(UseCase.class);
+
+    public VirtualThreadCollectSource(BlockingBankIdClient blockingBankIdClient, CollectProperties collectProperties,
+                                      CollectPollingPolicy collectPollingPolicy, OrderCancellationQueue orderCancellationQueue,
+                                      MeterRegistry meterRegistry) {
+        this.blockingBankIdClient = blockingBankIdClient;
+        this.collectPollingPolicy = collectPollingPolicy;
+        this.orderCancellationQueue = orderCancellationQueue;
+        this.orderTimeoutNanos = collectProperties.getOrderTimeout().toNanos();
+        for (UseCase useCase : UseCase.values()) {
+            collectCalls.put(useCase, Counter.builder("bankid.collect.calls")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectTicksSkipped.put(useCase, Counter.builder("bankid.collect.skipped")
+                    .description("Collect ticks skipped because the previous collect was still in flight")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectTimeouts.put(useCase, Counter.builder("bankid.collect.timeouts")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectErrors.put(useCase, Counter.builder("bankid.collect.errors")
+                    .description("Transient collect failures retried on the next tick")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectCircuitOpen.put(useCase, Counter.builder("bankid.collect.circuit.open")
+                    .description("Collect ticks skipped because the BankID circuit was open")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectCallsPerOrder.put(useCase, DistributionSummary.builder("bankid.collect.calls.per.order")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+            collectCallsSavedPerOrder.put(useCase, DistributionSummary.builder("bankid.collect.calls.saved.per.order")
+                    .description("Collect calls saved compared to polling every default interval")
+                    .tag("useCase", useCase.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    @Override
+    public Flux<CollectTick> schedule(String orderReference, UseCase useCase, long startedAtMillis) {
+        return Flux.create(sink -> {
+            PollingOrder pollingOrder = new PollingOrder(orderReference, useCase, startedAtMillis, sink);
+            if (pollingOrders.putIfAbsent(orderReference, pollingOrder) != null) {
+                sink.error(new IllegalStateException("Collect is already scheduled for order reference %s".formatted(orderReference)));
+                return;
+            }
+            orderCancellationQueue.revoke(orderReference);
+            sink.onCancel(pollingOrder::abandon);
+            pollingOrder.start();
+        });
+    }
+
+    public int activeOrders() {
+        return pollingOrders.size();
+    }
+
+    @Override
+    public void destroy() {
+        pollingOrders.values().forEach(PollingOrder::complete);
+    }
+
+    private void recordCompletedOrder(UseCase useCase, long calls, long elapsedNanos) {
+        long baselineCalls = elapsedNanos / collectPollingPolicy.defaultInterval().toNanos() + 1;
+        collectCallsPerOrder.get(useCase).record(calls);
+        collectCallsSavedPerOrder.get(useCase).record(Math.max(baselineCalls - calls, 0));
+    }
+
+    private final class PollingOrder implements Runnable {
+        private final String orderReference;
+        private final UseCase useCase;
+        private final FluxSink<CollectTick> sink;
+        private final long startNanos;
+        private volatile CollectResponse.Status status;
+        private volatile boolean stopped;
+        private volatile Thread thread;
+
+        private PollingOrder(String orderReference, UseCase useCase, long startedAtMillis, FluxSink<CollectTick> sink) {
+            this.orderReference = orderReference;
+            this.useCase = useCase;
+            this.sink = sink;
+            this.startNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(Math.max(System.currentTimeMillis() - startedAtMillis, 0));
+        }
+
+        private void start() {
+            thread = threadFactory.newThread(this);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            long deadline = startNanos + orderTimeoutNanos;
+            long sequence = 0;
+            long calls = 0;
+            String hintCode = null;
+            long nextFireNanos = System.nanoTime();
+            try {
+                while (!stopped) {
+                    long now = System.nanoTime();
+                    if (now - deadline >= 0) {
+                        log.info("Collect for order reference {} timed out", orderReference);
+                        orderCancellationQueue.cancel(orderReference);
+                        sink.complete();
+                        return;
+                    }
+                    calls++;
+                    collectCalls.get(useCase).increment();
+                    CollectResponse collectResponse = collect(Duration.ofNanos(deadline - now));
+                    if (collectResponse != null) {
+                        status = collectResponse.status();
+                        hintCode = collectResponse.hintCode();
+                        sink.next(new CollectTick(sequence++, collectResponse));
+                        if (collectResponse.status() != CollectResponse.Status.PENDING) {
+                            sink.complete();
+                            return;
+                        }
+                    }
+                    long intervalNanos = collectPollingPolicy.interval(useCase, hintCode).toNanos();
+                    long collectedAt = System.nanoTime();
+                    nextFireNanos += intervalNanos;
+                    if (collectedAt - nextFireNanos > 0) {
+                        collectTicksSkipped.get(useCase).increment((collectedAt - nextFireNanos) / intervalNanos);
+                        nextFireNanos = collectedAt;
+                    }
+                    long sleepNanos = (nextFireNanos - deadline < 0 ? nextFireNanos : deadline) - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        Thread.sleep(Duration.ofNanos(sleepNanos));
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.debug("Collect for order reference {} interrupted", orderReference);
+            } catch (IOException | RuntimeException e) {
+                if (!stopped) {
+                    orderCancellationQueue.cancel(orderReference);
+                    sink.error(e);
+                }
+            } finally {
+                stopped = true;
+                if (pollingOrders.remove(orderReference, this)) {
+                    recordCompletedOrder(useCase, calls, System.nanoTime() - startNanos);
+                }
+            }
+        }
+
+        private CollectResponse collect(Duration budget) throws IOException, InterruptedException {
+            try {
+                CollectResponse collectResponse = blockingBankIdClient.collect(orderReference, budget);
+                if (collectResponse == null) {
+                    throw new IllegalStateException("Empty collect response for order reference %s".formatted(orderReference));
+                }
+                return collectResponse;
+            } catch (CircuitOpenException e) {
+                collectCircuitOpen.get(useCase).increment();
+                return null;
+            } catch (HttpTimeoutException e) {
+                log.info("Collect for order reference {} timed out, retrying on the next tick", orderReference);
+                collectTimeouts.get(useCase).increment();
+                return null;
+            } catch (IOException | RestClientResponseException e) {
+                if (!BankIdCircuitBreaker.isTransient(e)) {
+                    throw e;
+                }
+                log.warn("Collect for order reference {} failed, retrying on the next tick", orderReference, e);
+                collectErrors.get(useCase).increment();
+                return null;
+            }
+        }
+
+        private void complete() {
+            stop();
+            sink.complete();
+        }
+
+        private void abandon() {
+            if (!stopped && (status == null || status == CollectResponse.Status.PENDING)) {
+                orderCancellationQueue.cancelAfterGracePeriod(orderReference);
+            }
+            stop();
+        }
+
+        private void stop() {
+            stopped = true;
+            Thread current = thread;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+public record ActiveOrder(String orderRef, UseCase useCase, long startedAtMillis,
+                          CollectResponse.Status status, HintCode hintCode, int subscribers) {
+}
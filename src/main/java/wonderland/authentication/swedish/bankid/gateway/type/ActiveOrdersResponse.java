@@ -0,0 +1,9 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+import java.util.List;
+import java.util.Map;
+
+public record ActiveOrdersResponse(int total, int awaitingFirstCollect, Map<UseCase, Integer> byUseCase,
+                                   Map<CollectResponse.Status, Integer> byStatus, int page, int size,
+                                   List<ActiveOrder> orders) {
+}
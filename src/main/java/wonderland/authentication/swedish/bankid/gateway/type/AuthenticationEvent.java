@@ -1,20 +1,37 @@
 package wonderland.authentication.swedish.bankid.gateway.type;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public record AuthenticationEvent(String id, AuthenticationStatus status, String data,
-                                  CompletedAuthentication completionData, String hintCode) {
+                                  CompletedAuthentication completionData, String hintCode, String handle) {
+    public static final char HANDLE_SEPARATOR = ':';
+
     public static AuthenticationEvent error() {
-        return new AuthenticationEvent("-1", AuthenticationStatus.ERROR, null, null, null);
+        return new AuthenticationEvent("-1", AuthenticationStatus.ERROR, null, null, null, null);
     }
 
     public static AuthenticationEvent pending(String sequence, String data, String hintCode) {
-        return new AuthenticationEvent(sequence, AuthenticationStatus.PENDING, data, null, hintCode);
+        return new AuthenticationEvent(sequence, AuthenticationStatus.PENDING, data, null, hintCode, null);
     }
 
     public static AuthenticationEvent failed(String sequence, String hintCode) {
-        return new AuthenticationEvent(sequence, AuthenticationStatus.FAILED, null, null, hintCode);
+        return new AuthenticationEvent(sequence, AuthenticationStatus.FAILED, null, null, hintCode, null);
     }
 
     public static AuthenticationEvent complete(String sequence, CompletedAuthentication completionData) {
-        return new AuthenticationEvent(sequence, AuthenticationStatus.COMPLETE, null, completionData, null);
+        return new AuthenticationEvent(sequence, AuthenticationStatus.COMPLETE, null, completionData, null, null);
+    }
+
+    public AuthenticationEvent withHandle(String handle) {
+        return new AuthenticationEvent(id, status, data, completionData, hintCode, handle);
+    }
+
+    public String eventId() {
+        return handle == null ? id : handle + HANDLE_SEPARATOR + id;
+    }
+
+    @JsonIgnore
+    public boolean isTerminal() {
+        return status != AuthenticationStatus.PENDING;
     }
 }
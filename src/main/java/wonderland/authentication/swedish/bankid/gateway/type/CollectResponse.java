@@ -21,9 +21,15 @@ public record CollectResponse(
         PENDING,
         COMPLETE,
         FAILED;
+
         @JsonCreator
         public static Status fromString(String value) {
-            return Status.valueOf(value.toUpperCase());
+            for (Status status : values()) {
+                if (status.name().equalsIgnoreCase(value)) {
+                    return status;
+                }
+            }
+            throw new IllegalArgumentException("Unknown collect status %s".formatted(value));
         }
     }
 
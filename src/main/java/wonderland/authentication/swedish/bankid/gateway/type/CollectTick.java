@@ -0,0 +1,4 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+public record CollectTick(long sequence, CollectResponse response) {
+}
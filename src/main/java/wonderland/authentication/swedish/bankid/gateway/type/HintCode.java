@@ -0,0 +1,47 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public enum HintCode {
+    OUTSTANDING_TRANSACTION("outstandingTransaction"),
+    NO_CLIENT("noClient"),
+    STARTED("started"),
+    USER_MRTD("userMrtd"),
+    USER_CALL_CONFIRM("userCallConfirm"),
+    USER_SIGN("userSign"),
+    EXPIRED_TRANSACTION("expiredTransaction"),
+    CERTIFICATE_ERR("certificateErr"),
+    USER_CANCEL("userCancel"),
+    CANCELLED("cancelled"),
+    START_FAILED("startFailed"),
+    USER_DECLINED_CALL("userDeclinedCall"),
+    NOT_SUPPORTED_BY_USER_APP("notSupportedByUserApp"),
+    TRANSACTION_RISK_BLOCKED("transactionRiskBlocked"),
+    UNKNOWN("unknown");
+
+    private static final Map<String, HintCode> BY_CODE = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        for (HintCode hintCode : values()) {
+            BY_CODE.put(hintCode.code, hintCode);
+        }
+    }
+
+    private final String code;
+
+    HintCode(String code) {
+        this.code = code;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public static HintCode fromCode(String code) {
+        if (code == null) {
+            return null;
+        }
+        return BY_CODE.getOrDefault(code, UNKNOWN);
+    }
+}
@@ -0,0 +1,13 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+import java.util.UUID;
+
+public record OrderSession(String handle, String orderRef, UseCase useCase, String endUserIp, String autoStartToken,
+                           String qrStartToken, String qrStartSecret, long startedAtMillis, AuthenticationStatus status) {
+
+    public static OrderSession start(AuthenticationResponse authenticationResponse, UseCase useCase, String endUserIp) {
+        return new OrderSession(UUID.randomUUID().toString(), authenticationResponse.orderRef(), useCase, endUserIp,
+                authenticationResponse.autoStartToken(), authenticationResponse.qrStartToken(), authenticationResponse.qrStartSecret(),
+                System.currentTimeMillis(), AuthenticationStatus.PENDING);
+    }
+}
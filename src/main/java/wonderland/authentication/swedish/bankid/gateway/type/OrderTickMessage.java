@@ -0,0 +1,25 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record OrderTickMessage(Kind kind, CollectTick tick, String error) {
+
+    public enum Kind {
+        TICK,
+        COMPLETE,
+        ERROR
+    }
+
+    public static OrderTickMessage tick(CollectTick tick) {
+        return new OrderTickMessage(Kind.TICK, tick, null);
+    }
+
+    public static OrderTickMessage complete() {
+        return new OrderTickMessage(Kind.COMPLETE, null, null);
+    }
+
+    public static OrderTickMessage error(String error) {
+        return new OrderTickMessage(Kind.ERROR, null, error);
+    }
+}
@@ -0,0 +1,20 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record SocketCommand(Op op, String ref, UseCase useCase, String nonce, String lastEventId, String id, Integer window,
+                            String handle) {
+
+    public enum Op {
+        START,
+        CANCEL,
+        ACK;
+
+        @JsonCreator
+        public static Op fromString(String value) {
+            return Op.valueOf(value.toUpperCase());
+        }
+    }
+}
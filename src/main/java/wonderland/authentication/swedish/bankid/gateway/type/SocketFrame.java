@@ -0,0 +1,24 @@
+package wonderland.authentication.swedish.bankid.gateway.type;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SocketFrame(@JsonProperty("r") String ref,
+                          @JsonProperty("i") String id,
+                          @JsonProperty("s") AuthenticationStatus status,
+                          @JsonProperty("d") String data,
+                          @JsonProperty("h") String hintCode,
+                          @JsonProperty("c") CompletedAuthentication completionData,
+                          @JsonProperty("e") String error,
+                          @JsonProperty("ra") Long retryAfter) {
+
+    public static SocketFrame event(String ref, AuthenticationEvent authenticationEvent) {
+        return new SocketFrame(ref, authenticationEvent.eventId(), authenticationEvent.status(), authenticationEvent.data(),
+                authenticationEvent.hintCode(), authenticationEvent.completionData(), null, null);
+    }
+
+    public static SocketFrame error(String ref, String error, Long retryAfter) {
+        return new SocketFrame(ref, null, AuthenticationStatus.ERROR, null, null, null, error, retryAfter);
+    }
+}
@@ -11,20 +11,25 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import wonderland.authentication.swedish.bankid.gateway.config.BankIdProperties;
 import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
@@ -32,7 +37,10 @@ import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatu
 import wonderland.authentication.swedish.bankid.gateway.type.NationalIdResponse;
 
 import java.io.IOException;
+import java.net.URI;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
@@ -40,6 +48,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.post;
 import static com.github.tomakehurst.wiremock.client.WireMock.serverError;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus.COMPLETE;
@@ -94,6 +103,9 @@ class ApplicationTest {
         }
     }
 
+    @LocalServerPort
+    private int port;
+
     @Autowired
     private WebTestClient testClient;
 
@@ -159,9 +171,10 @@ class ApplicationTest {
                 .expectNextMatches(authenticationEvent -> assertPendingQrEvent(1, authenticationEvent))
                 .expectNextMatches(authenticationEvent -> assertPendingQrEvent(2, authenticationEvent))
                 .verifyComplete();
-        await().atMost(Duration.ofSeconds(2L))
+        await().during(Duration.ofSeconds(1L))
+                .atMost(Duration.ofSeconds(2L))
                 .pollInterval(Duration.ofMillis(100L))
-                .until(() -> wireMockExtension.getServeEvents(ServeEventQuery.forStubMapping(collectPending)).getRequests().size() == 3);
+                .until(() -> wireMockExtension.getServeEvents(ServeEventQuery.forStubMapping(collectPending)).getRequests().size() < 3);
     }
 
     @Test
@@ -220,6 +233,61 @@ class ApplicationTest {
                 .until(() -> wireMockExtension.getServeEvents(ServeEventQuery.forStubMapping(collectPending)).getRequests().size() == 3);
     }
 
+    @Test
+    void resumeStatusStreamWithLastEventId() {
+        String orderReference = "131daac9-16c6-4618-beb0-365768f37288";
+        final StubMapping auth = wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/auth"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("""
+                                {
+                                "orderRef": "%s",
+                                "autoStartToken": "%s",
+                                "qrStartToken": "131daac9-16c6-4618-beb0-365768f37289",
+                                "qrStartSecret": "0ce68cf7-7d35-4386-9bad-46ee426cadca"
+                                }""".formatted(orderReference, TEST_AUTOSTART_START_TOKEN))));
+        wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/collect"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("""
+                                {
+                                  "orderRef":"%s",
+                                  "status":"%s",
+                                  "hintCode":"hintCode"
+                                }""".formatted(orderReference, "pending"))));
+        ParameterizedTypeReference<ServerSentEvent<AuthenticationEvent>> type = new ParameterizedTypeReference<>() {
+        };
+        ServerSentEvent<AuthenticationEvent> firstEvent = testClient
+                .get()
+                .uri("/v1/methods/swedish-bankid/authentication-events?useCase=SAME_DEVICE")
+                .header("x-envoy-external-address", TEST_END_USER_IP)
+                .accept(MediaType.valueOf(MediaType.TEXT_EVENT_STREAM_VALUE))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(type)
+                .getResponseBody()
+                .blockFirst(Duration.ofSeconds(5L));
+        Flux<AuthenticationEvent> resumedEvents = testClient
+                .get()
+                .uri("/v1/methods/swedish-bankid/authentication-events?useCase=SAME_DEVICE")
+                .header("x-envoy-external-address", TEST_END_USER_IP)
+                .header("Last-Event-ID", firstEvent.id())
+                .accept(MediaType.valueOf(MediaType.TEXT_EVENT_STREAM_VALUE))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(type)
+                .getResponseBody()
+                .mapNotNull(ServerSentEvent::data);
+        StepVerifier
+                .create(resumedEvents.take(2))
+                .expectNextMatches(authenticationEvent -> authenticationEvent.handle().equals(firstEvent.data().handle())
+                        && authenticationEvent.data().equals(TEST_AUTOSTART_START_TOKEN))
+                .expectNextMatches(authenticationEvent -> authenticationEvent.handle().equals(firstEvent.data().handle())
+                        && authenticationEvent.data().equals(TEST_AUTOSTART_START_TOKEN))
+                .verifyComplete();
+        assertThat(wireMockExtension.getServeEvents(ServeEventQuery.forStubMapping(auth)).getRequests()).hasSize(1);
+    }
+
     @Test
     void getWithoutXForwardedForHeader() {
         testClient.get()
@@ -229,6 +297,45 @@ class ApplicationTest {
                 .expectStatus().isBadRequest();
     }
 
+    @Test
+    void authenticationEventsOverWebSocket() {
+        String orderReference = "131daac9-16c6-4618-beb0-365768f37288";
+        wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/auth"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("""
+                                {
+                                "orderRef": "%s",
+                                "autoStartToken": "%s",
+                                "qrStartToken": "%s",
+                                "qrStartSecret": "0ce68cf7-7d35-4386-9bad-46ee426cadca"
+                                }""".formatted(orderReference, TEST_AUTOSTART_START_TOKEN, TEST_QR_START_TOKEN))));
+        wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/collect"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("""
+                                {
+                                  "orderRef":"%s",
+                                  "status":"failed",
+                                  "hintCode":"userCancel"
+                                }""".formatted(orderReference))));
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("x-envoy-external-address", TEST_END_USER_IP);
+        List<String> frames = new CopyOnWriteArrayList<>();
+        new ReactorNettyWebSocketClient()
+                .execute(URI.create("ws://localhost:%d/v1/methods/swedish-bankid/authentication-socket".formatted(port)), headers,
+                        session -> session.send(Mono.just(session.textMessage("""
+                                        {"op":"start","ref":"a","useCase":"SAME_DEVICE"}""")))
+                                .thenMany(session.receive()
+                                        .map(WebSocketMessage::getPayloadAsText)
+                                        .doOnNext(frames::add)
+                                        .takeUntil(frame -> frame.contains("\"s\":\"FAILED\"")))
+                                .then())
+                .block(Duration.ofSeconds(5L));
+        assertThat(frames).hasSize(1);
+        assertThat(frames.getFirst()).contains("\"r\":\"a\"", "\"h\":\"userCancel\"");
+    }
+
     @Test
     void getStatusStreamPendingThenCompletedForQR() {
         String orderReference = "131daac9-16c6-4618-beb0-365768f37288";
@@ -594,7 +701,7 @@ class ApplicationTest {
                 .expectNextMatches(this::assertPendingQrEvent)
                 .expectNextMatches(authenticationEvent -> authenticationEvent.status().equals(COMPLETE)
                         && authenticationEvent.data() == null
-                        && Integer.parseInt(authenticationEvent.id()) == 1
+                        && Integer.parseInt(authenticationEvent.id()) == 2
                         && authenticationEvent.completionData().orderReference().equals(orderReference)
                         && authenticationEvent.completionData().nationalId().equals(nationalId)
                         && authenticationEvent.hintCode() == null
@@ -0,0 +1,120 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.config.ResilienceProperties;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class BankIdCircuitBreakerTest {
+
+    private MeterRegistry meterRegistry;
+    private BankIdCircuitBreaker circuitBreaker;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreaker = new BankIdCircuitBreaker(ResilienceProperties.builder()
+                .failureRateThreshold(50)
+                .slidingWindowSize(10)
+                .minimumCalls(4)
+                .openDuration(Duration.ofMillis(200))
+                .halfOpenCalls(2)
+                .hedgeCollect(false)
+                .hedgeMinDelay(Duration.ofMillis(100))
+                .hedgeJitter(0.2)
+                .hedgeBudget(0.1)
+                .build(), meterRegistry);
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(circuitBreaker.guard(serverError())).expectError(WebClientResponseException.class).verify();
+        }
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThresholdAndRejectsWithoutCalling() {
+        StepVerifier.create(circuitBreaker.guard(ok())).expectNext("ok").verifyComplete();
+        StepVerifier.create(circuitBreaker.guard(ok())).expectNext("ok").verifyComplete();
+        StepVerifier.create(circuitBreaker.guard(serverError())).expectError(WebClientResponseException.class).verify();
+        StepVerifier.create(circuitBreaker.guard(serverError())).expectError(WebClientResponseException.class).verify();
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.OPEN);
+        StepVerifier.create(circuitBreaker.guard(ok())).expectError(CircuitOpenException.class).verify();
+        assertThat(calls).hasValue(4);
+        assertThat(meterRegistry.get("bankid.circuit.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void clientErrorsDoNotOpenCircuit() {
+        for (int i = 0; i < 10; i++) {
+            StepVerifier.create(circuitBreaker.guard(Mono.error(WebClientResponseException.create(HttpStatus.BAD_REQUEST.value(),
+                    "Bad Request", null, null, null)))).expectError(WebClientResponseException.class).verify();
+        }
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void closesAfterSuccessfulProbesOnceOpenDurationElapsed() {
+        open();
+        await().atMost(Duration.ofSeconds(1)).until(() -> circuitBreaker.guard(ok()).onErrorReturn("rejected").block().equals("ok"));
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.HALF_OPEN);
+        StepVerifier.create(circuitBreaker.guard(ok())).expectNext("ok").verifyComplete();
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void reopensWhenProbeFails() {
+        open();
+        await().atMost(Duration.ofSeconds(1)).until(() -> circuitBreaker.guard(serverError())
+                .onErrorResume(WebClientResponseException.class, _ -> Mono.just("failed"))
+                .onErrorReturn("rejected")
+                .block().equals("failed"));
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void limitsConcurrentProbesWhileHalfOpen() {
+        open();
+        await().atMost(Duration.ofSeconds(1)).until(() -> {
+            circuitBreaker.guard(Mono.never()).subscribe();
+            return circuitBreaker.state() == BankIdCircuitBreaker.State.HALF_OPEN;
+        });
+        circuitBreaker.guard(Mono.never()).subscribe();
+        StepVerifier.create(circuitBreaker.guard(ok())).expectError(CircuitOpenException.class).verify();
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.guard(serverError()).onErrorResume(_ -> Mono.empty()).block();
+        }
+        assertThat(circuitBreaker.state()).isEqualTo(BankIdCircuitBreaker.State.OPEN);
+    }
+
+    private Mono<String> ok() {
+        return Mono.fromCallable(() -> {
+            calls.incrementAndGet();
+            return "ok";
+        });
+    }
+
+    private Mono<String> serverError() {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.error(WebClientResponseException.create(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Internal Server Error", null, null, null));
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClientResponseException;
+import wonderland.authentication.swedish.bankid.gateway.config.BankIdProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.HttpClientProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.ResilienceProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.RoutingProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.WebClientConfig;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.serverError;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static wonderland.authentication.swedish.bankid.gateway.client.BankIdClientTest.LOCALHOST_CERTIFICATE_CONTENT;
+import static wonderland.authentication.swedish.bankid.gateway.client.BankIdClientTest.RELAYING_PARTY_CERTIFICATE_CONTENT;
+import static wonderland.authentication.swedish.bankid.gateway.client.BankIdClientTest.RELAYING_PARTY_PRIVATE_KEY_CONTENT;
+
+class BlockingBankIdClientTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+
+    @RegisterExtension
+    static WireMockExtension wireMockExtension;
+
+    static {
+        try {
+            wireMockExtension = WireMockExtension.newInstance()
+                    .options(
+                            wireMockConfig()
+                                    .dynamicHttpsPort()
+                                    .needClientAuth(true)
+                                    .trustStoreType("PKCS12")
+                                    .trustStorePassword("pwd")
+                                    .trustStorePath(new ClassPathResource("relaying_party_certificate.p12").getFile().getAbsolutePath())
+                                    .keystoreType("PKCS12")
+                                    .keystorePassword("pwd")
+                                    .keyManagerPassword("pwd")
+                                    .keystorePath(new ClassPathResource("localhost_certificate.p12").getFile().getAbsolutePath())
+                    )
+                    .build();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private BlockingBankIdClient blockingBankIdClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        BankIdProperties properties = BankIdProperties.builder()
+                .baseUrl(URI.create(wireMockExtension.baseUrl()))
+                .trustStore(LOCALHOST_CERTIFICATE_CONTENT)
+                .keyStoreCertificate(RELAYING_PARTY_CERTIFICATE_CONTENT)
+                .keyStorePrivateKey(RELAYING_PARTY_PRIVATE_KEY_CONTENT)
+                .build();
+        HttpClientProperties httpClientProperties = HttpClientProperties.builder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .authTimeout(Duration.ofSeconds(2))
+                .collectTimeout(Duration.ofSeconds(2))
+                .cancelTimeout(Duration.ofSeconds(2))
+                .build();
+        ResilienceProperties resilienceProperties = ResilienceProperties.builder()
+                .failureRateThreshold(50)
+                .slidingWindowSize(10)
+                .minimumCalls(4)
+                .openDuration(Duration.ofMinutes(1))
+                .halfOpenCalls(1)
+                .hedgeCollect(false)
+                .hedgeMinDelay(Duration.ofMillis(100))
+                .hedgeJitter(0.2)
+                .hedgeBudget(0.1)
+                .build();
+        RoutingProperties routingProperties = RoutingProperties.builder()
+                .ewmaWeight(0.3)
+                .consecutiveFailures(5)
+                .ejectionDuration(Duration.ofSeconds(30))
+                .maxEjectedPercent(50)
+                .stickyOrders(false)
+                .stickyOrderTtl(Duration.ofMinutes(3))
+                .build();
+        blockingBankIdClient = new BlockingBankIdClient(new WebClientConfig().blockingBankIdHttpClient(properties, httpClientProperties),
+                httpClientProperties, new BankIdCircuitBreaker(resilienceProperties, new SimpleMeterRegistry()),
+                new EndpointRouter(properties, routingProperties, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void collectOverMutualTls() throws Exception {
+        wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/collect"))
+                .withRequestBody(equalToJson("""
+                        {"orderRef": "%s"}
+                        """.formatted(ORDER_REFERENCE)))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("""
+                                {
+                                  "orderRef":"%s",
+                                  "status":"pending",
+                                  "hintCode":"outstandingTransaction"
+                                }""".formatted(ORDER_REFERENCE))));
+        CollectResponse response = blockingBankIdClient.collect(ORDER_REFERENCE, Duration.ofSeconds(1));
+        assertThat(response.status()).isEqualTo(CollectResponse.Status.PENDING);
+        assertThat(response.hintCode()).isEqualTo("outstandingTransaction");
+    }
+
+    @Test
+    void collectWhen500FromBankId() {
+        wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/collect"))
+                .willReturn(serverError()));
+        RestClientResponseException e = assertThrows(RestClientResponseException.class,
+                () -> blockingBankIdClient.collect(ORDER_REFERENCE, Duration.ofSeconds(1)));
+        assertThat(e.getStatusCode()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    @Test
+    void collectTimesOutWithinBudget() {
+        wireMockExtension.stubFor(post(urlPathEqualTo("/rp/v6.0/collect"))
+                .willReturn(aResponse()
+                        .withFixedDelay(1_000)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{}")));
+        assertThrows(HttpTimeoutException.class, () -> blockingBankIdClient.collect(ORDER_REFERENCE, Duration.ofMillis(200)));
+    }
+}
@@ -0,0 +1,148 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.config.ResilienceProperties;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CollectHedgingTest {
+
+    private MeterRegistry meterRegistry;
+    private CollectHedging collectHedging;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        collectHedging = collectHedging(true, 0.1);
+    }
+
+    @Test
+    void doesNotHedgeBeforeLatencyIsKnown() {
+        StepVerifier.create(collectHedging.hedge(Duration.ofSeconds(1), _ -> attempt(Duration.ofMillis(200), "primary")))
+                .expectNext("primary")
+                .verifyComplete();
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void hedgesCollectSlowerThanP95AndTakesFirstResponse() {
+        warmUp();
+        AtomicInteger attempt = new AtomicInteger();
+        StepVerifier.create(collectHedging.hedge(Duration.ofSeconds(2), _ -> attempt.getAndIncrement() == 0
+                        ? attempt(Duration.ofSeconds(1), "primary")
+                        : attempt(Duration.ofMillis(10), "hedge")))
+                .expectNext("hedge")
+                .expectComplete()
+                .verify(Duration.ofMillis(500));
+        assertThat(meterRegistry.get("bankid.collect.hedged").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void failedHedgeLeavesPrimaryToAnswer() {
+        warmUp();
+        AtomicInteger attempt = new AtomicInteger();
+        StepVerifier.create(collectHedging.hedge(Duration.ofSeconds(2), _ -> attempt.getAndIncrement() == 0
+                        ? attempt(Duration.ofMillis(300), "primary")
+                        : Mono.error(new IllegalStateException("boom"))))
+                .expectNext("primary")
+                .verifyComplete();
+    }
+
+    @Test
+    void hedgeAnswersWhenPrimaryFailsFast() {
+        warmUp();
+        AtomicInteger attempt = new AtomicInteger();
+        StepVerifier.create(collectHedging.hedge(Duration.ofSeconds(2), _ -> attempt.getAndIncrement() == 0
+                        ? Mono.delay(Duration.ofMillis(10)).then(Mono.error(new IllegalStateException("primary")))
+                        : attempt(Duration.ofMillis(10), "hedge")))
+                .expectNext("hedge")
+                .verifyComplete();
+        assertThat(meterRegistry.get("bankid.collect.hedged").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void propagatesPrimaryErrorWhenHedgeAlsoFails() {
+        warmUp();
+        AtomicInteger attempt = new AtomicInteger();
+        StepVerifier.create(collectHedging.hedge(Duration.ofSeconds(2), _ -> attempt.getAndIncrement() == 0
+                        ? Mono.<String>error(new IllegalStateException("primary"))
+                        : Mono.error(new IllegalStateException("hedge"))))
+                .expectErrorMessage("primary")
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void doesNotHedgeWhenBudgetIsShorterThanHedgeDelay() {
+        warmUp();
+        StepVerifier.create(collectHedging.hedge(Duration.ofMillis(50), _ -> attempt(Duration.ofMillis(30), "primary")))
+                .expectNext("primary")
+                .verifyComplete();
+        assertThat(meterRegistry.get("bankid.collect.hedged").counter().count()).isZero();
+    }
+
+    @Test
+    void throttlesHedgesOnceBudgetIsSpent() {
+        collectHedging = collectHedging(true, 0.01);
+        warmUp();
+        for (int i = 0; i < 12; i++) {
+            collectHedging.hedge(Duration.ofSeconds(2), _ -> attempt(Duration.ofMillis(150), "slow")).block();
+        }
+        assertThat(meterRegistry.get("bankid.collect.hedged").counter().count()).isEqualTo(10);
+        assertThat(meterRegistry.get("bankid.collect.hedge.throttled").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void hedgeDelayIsJitteredAboveP95() {
+        warmUp();
+        for (int i = 0; i < 100; i++) {
+            assertThat(collectHedging.hedgeDelayNanos()).isBetween(Duration.ofMillis(100).toNanos(), Duration.ofMillis(120).toNanos());
+        }
+    }
+
+    @Test
+    void passesThroughWhenDisabled() {
+        collectHedging = collectHedging(false, 0.1);
+        warmUp();
+        StepVerifier.create(collectHedging.hedge(Duration.ofSeconds(2), _ -> attempt(Duration.ofMillis(300), "primary")))
+                .expectNext("primary")
+                .verifyComplete();
+        assertThat(meterRegistry.get("bankid.collect.hedged").counter().count()).isZero();
+    }
+
+    private void warmUp() {
+        for (int i = 0; i < 32; i++) {
+            collectHedging.record(Duration.ofMillis(20).toNanos());
+        }
+    }
+
+    private CollectHedging collectHedging(boolean enabled, double budget) {
+        meterRegistry = new SimpleMeterRegistry();
+        return new CollectHedging(ResilienceProperties.builder()
+                .failureRateThreshold(50)
+                .slidingWindowSize(10)
+                .minimumCalls(4)
+                .openDuration(Duration.ofSeconds(1))
+                .halfOpenCalls(1)
+                .hedgeCollect(enabled)
+                .hedgeMinDelay(Duration.ofMillis(100))
+                .hedgeJitter(0.2)
+                .hedgeBudget(budget)
+                .build(), meterRegistry);
+    }
+
+    private Mono<String> attempt(Duration latency, String value) {
+        return Mono.delay(latency).map(_ -> {
+            attempts.incrementAndGet();
+            return value;
+        });
+    }
+}
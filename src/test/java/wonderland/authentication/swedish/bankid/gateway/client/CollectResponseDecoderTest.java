@@ -0,0 +1,82 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.HintCode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CollectResponseDecoderTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+    private static final ResolvableType COLLECT_RESPONSE_TYPE = ResolvableType.forClass(CollectResponse.class);
+
+    private final CollectResponseDecoder decoder = new CollectResponseDecoder();
+
+    @Test
+    void decodesOnlyCollectResponsesFromJson() {
+        assertThat(decoder.canDecode(COLLECT_RESPONSE_TYPE, MediaType.APPLICATION_JSON)).isTrue();
+        assertThat(decoder.canDecode(ResolvableType.forClass(String.class), MediaType.APPLICATION_JSON)).isFalse();
+        assertThat(decoder.canDecode(COLLECT_RESPONSE_TYPE, MediaType.TEXT_PLAIN)).isFalse();
+    }
+
+    @Test
+    void internsKnownHintCodes() {
+        CollectResponse response = decode("""
+                {"orderRef":"%s","status":"pending","hintCode":"outstandingTransaction"}""".formatted(ORDER_REFERENCE));
+
+        assertThat(response).isEqualTo(new CollectResponse(ORDER_REFERENCE, CollectResponse.Status.PENDING, "outstandingTransaction", null));
+        assertThat(response.hintCode()).isSameAs(HintCode.OUTSTANDING_TRANSACTION.code());
+    }
+
+    @Test
+    void keepsUnknownHintCodesAndIgnoresUnknownFields() {
+        CollectResponse response = decode("""
+                {"status":"FAILED","extra":{"nested":[1,2]},"hintCode":"somethingNew","orderRef":"%s"}""".formatted(ORDER_REFERENCE));
+
+        assertThat(response).isEqualTo(new CollectResponse(ORDER_REFERENCE, CollectResponse.Status.FAILED, "somethingNew", null));
+    }
+
+    @Test
+    void decodesCompletionDataForCompleteResponse() {
+        CollectResponse response = decoder.decode("""
+                {
+                  "orderRef":"%s",
+                  "status":"complete",
+                  "completionData":{
+                    "user":{"personalNumber":"190000000000","name":"Karl Karlsson"},
+                    "device":{"ipAddress":"192.168.0.1","uhi":"OZvYM9VvyiAmG7NA5jU5zRGcSC9pqfWxSdwbQpRsw0"},
+                    "bankIdIssueDate":"2020-02-01",
+                    "risk":"low"
+                  }
+                }""".formatted(ORDER_REFERENCE).getBytes(StandardCharsets.UTF_8));
+
+        assertThat(response.status()).isEqualTo(CollectResponse.Status.COMPLETE);
+        assertThat(response.hintCode()).isNull();
+        assertThat(response.completionData()).isEqualTo(new CollectResponse.CompletionData(
+                new CollectResponse.User("190000000000"), new CollectResponse.Device("192.168.0.1"), "low"));
+    }
+
+    @Test
+    void rejectsUnknownOrMissingStatus() {
+        assertThrows(DecodingException.class, () -> decode("""
+                {"orderRef":"%s","status":"paused"}""".formatted(ORDER_REFERENCE)));
+        assertThrows(DecodingException.class, () -> decode("""
+                {"orderRef":"%s"}""".formatted(ORDER_REFERENCE)));
+        assertThrows(DecodingException.class, () -> decode("[]"));
+    }
+
+    private CollectResponse decode(String json) {
+        DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.wrap(json.getBytes(StandardCharsets.UTF_8));
+        return decoder.decode(buffer, COLLECT_RESPONSE_TYPE, MediaType.APPLICATION_JSON, Map.of());
+    }
+}
@@ -0,0 +1,212 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.BankIdProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.RoutingProperties;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class EndpointRouterTest {
+
+    private static final URI PRIMARY = URI.create("https://appapi2.bankid.com");
+    private static final URI SECONDARY = URI.create("https://appapi3.bankid.com");
+    private static final URI TERTIARY = URI.create("https://appapi4.bankid.com");
+
+    private MeterRegistry meterRegistry;
+    private EndpointRouter endpointRouter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        endpointRouter = endpointRouter(List.of(SECONDARY), true, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void usesBaseUrlWhenNoAdditionalEndpointsAreConfigured() {
+        endpointRouter = endpointRouter(null, false, Duration.ofMinutes(1));
+        assertThat(endpointRouter.endpoints()).hasSize(1);
+        EndpointRouter.Endpoint endpoint = endpointRouter.select(null);
+        assertThat(endpoint.collectUri()).isEqualTo(URI.create("https://appapi2.bankid.com/rp/v6.0/collect"));
+    }
+
+    @Test
+    void keepsPathPrefixOfBaseUrl() {
+        endpointRouter = endpointRouter(URI.create("https://gateway.example.com/bankid"), List.of(URI.create("https://gateway.example.com/bankid-dr/")),
+                false, Duration.ofMinutes(1), Duration.ofMinutes(3));
+        assertThat(endpointRouter.endpoints()).extracting(EndpointRouter.Endpoint::collectUri).containsExactly(
+                URI.create("https://gateway.example.com/bankid/rp/v6.0/collect"),
+                URI.create("https://gateway.example.com/bankid-dr/rp/v6.0/collect"));
+    }
+
+    @Test
+    void prefersEndpointWithLowerLatency() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().get(0);
+        EndpointRouter.Endpoint secondary = endpointRouter.endpoints().get(1);
+        endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime() - Duration.ofMillis(300).toNanos(), null);
+        endpointRouter.complete(endpointRouter.acquire(secondary), System.nanoTime() - Duration.ofMillis(20).toNanos(), null);
+        for (int i = 0; i < 20; i++) {
+            assertThat(route()).isEqualTo(SECONDARY);
+        }
+        assertThat(primary.ewmaMillis()).isGreaterThan(secondary.ewmaMillis());
+    }
+
+    @Test
+    void ewmaDecaysTowardsRecentLatency() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().getFirst();
+        endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime() - Duration.ofMillis(500).toNanos(), null);
+        for (int i = 0; i < 30; i++) {
+            endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime() - Duration.ofMillis(10).toNanos(), null);
+        }
+        assertThat(primary.ewmaMillis()).isBetween(10.0, 12.0);
+    }
+
+    @Test
+    void ejectsEndpointAfterConsecutiveFailuresAndRoutesAroundIt() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().getFirst();
+        for (int i = 0; i < 3; i++) {
+            endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime(), serverError());
+        }
+        assertThat(primary.isEjected()).isTrue();
+        assertThat(meterRegistry.get("bankid.endpoint.ejections").tag("endpoint", "appapi2.bankid.com").counter().count()).isEqualTo(1);
+        for (int i = 0; i < 20; i++) {
+            assertThat(route()).isEqualTo(SECONDARY);
+        }
+    }
+
+    @Test
+    void clientErrorsDoNotEjectEndpoint() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().getFirst();
+        for (int i = 0; i < 5; i++) {
+            endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime(),
+                    WebClientResponseException.create(HttpStatus.BAD_REQUEST.value(), "Bad Request", null, null, null));
+        }
+        assertThat(primary.isEjected()).isFalse();
+    }
+
+    @Test
+    void neverEjectsMoreThanMaxEjectedPercent() {
+        for (EndpointRouter.Endpoint endpoint : endpointRouter.endpoints()) {
+            for (int i = 0; i < 3; i++) {
+                endpointRouter.complete(endpointRouter.acquire(endpoint), System.nanoTime(), serverError());
+            }
+        }
+        assertThat(endpointRouter.endpoints()).filteredOn(EndpointRouter.Endpoint::isEjected).hasSize(1);
+    }
+
+    @Test
+    void readmitsEndpointOnceEjectionExpires() {
+        endpointRouter = endpointRouter(List.of(SECONDARY, TERTIARY), true, Duration.ofMillis(50));
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().getFirst();
+        for (int i = 0; i < 3; i++) {
+            endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime(), serverError());
+        }
+        assertThat(primary.isEjected()).isTrue();
+        await().atMost(Duration.ofSeconds(1)).until(() -> {
+            route();
+            return !primary.isEjected();
+        });
+        assertThat(meterRegistry.get("bankid.endpoint.ejected").tag("endpoint", "appapi2.bankid.com").gauge().value()).isZero();
+    }
+
+    @Test
+    void pinsOrderToEndpointThatStartedIt() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().get(0);
+        EndpointRouter.Endpoint secondary = endpointRouter.endpoints().get(1);
+        endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime() - Duration.ofMillis(300).toNanos(), null);
+        endpointRouter.complete(endpointRouter.acquire(secondary), System.nanoTime() - Duration.ofMillis(20).toNanos(), null);
+        endpointRouter.own("orderRef", primary);
+        for (int i = 0; i < 20; i++) {
+            EndpointRouter.Endpoint endpoint = endpointRouter.select("orderRef");
+            assertThat(endpoint).isSameAs(primary);
+            endpointRouter.abandon(endpoint);
+        }
+        assertThat(meterRegistry.get("bankid.endpoint.orders.owned").gauge().value()).isEqualTo(1);
+        endpointRouter.release("orderRef");
+        assertThat(endpointRouter.select("orderRef")).isSameAs(secondary);
+    }
+
+    @Test
+    void doesNotRouteOrderToEjectedOwner() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().get(0);
+        EndpointRouter.Endpoint secondary = endpointRouter.endpoints().get(1);
+        endpointRouter.own("orderRef", primary);
+        for (int i = 0; i < 3; i++) {
+            endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime(), serverError());
+        }
+        assertThat(primary.isEjected()).isTrue();
+        assertThat(endpointRouter.select("orderRef")).isSameAs(secondary);
+    }
+
+    @Test
+    void expiresPinnedOrders() {
+        endpointRouter = endpointRouter(PRIMARY, List.of(SECONDARY), true, Duration.ofMinutes(1), Duration.ofMillis(50));
+        endpointRouter.own("orderRef", endpointRouter.endpoints().getFirst());
+        assertThat(meterRegistry.get("bankid.endpoint.orders.owned").gauge().value()).isEqualTo(1);
+        await().atMost(Duration.ofSeconds(1))
+                .until(() -> meterRegistry.get("bankid.endpoint.orders.owned").gauge().value() == 0);
+    }
+
+    @Test
+    void routesByLatencyWhenOrdersAreNotSticky() {
+        endpointRouter = endpointRouter(List.of(SECONDARY), false, Duration.ofMinutes(1));
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().get(0);
+        EndpointRouter.Endpoint secondary = endpointRouter.endpoints().get(1);
+        endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime() - Duration.ofMillis(300).toNanos(), null);
+        endpointRouter.complete(endpointRouter.acquire(secondary), System.nanoTime() - Duration.ofMillis(20).toNanos(), null);
+        endpointRouter.own("orderRef", primary);
+        assertThat(endpointRouter.route("orderRef", endpoint -> Mono.just(endpoint.baseUrl())).block()).isEqualTo(SECONDARY);
+    }
+
+    @Test
+    void cancelledCallsLeaveEndpointIdle() {
+        EndpointRouter.Endpoint primary = endpointRouter.endpoints().get(0);
+        EndpointRouter.Endpoint secondary = endpointRouter.endpoints().get(1);
+        endpointRouter.complete(endpointRouter.acquire(primary), System.nanoTime() - Duration.ofMillis(20).toNanos(), null);
+        endpointRouter.complete(endpointRouter.acquire(secondary), System.nanoTime() - Duration.ofMillis(30).toNanos(), null);
+        for (int i = 0; i < 10; i++) {
+            endpointRouter.route(null, _ -> Mono.never()).subscribe().dispose();
+        }
+        for (int i = 0; i < 20; i++) {
+            assertThat(route()).isEqualTo(PRIMARY);
+        }
+    }
+
+    private URI route() {
+        return endpointRouter.route(null, endpoint -> Mono.just(endpoint.baseUrl())).block();
+    }
+
+    private EndpointRouter endpointRouter(List<URI> additionalBaseUrls, boolean stickyOrders, Duration ejectionDuration) {
+        return endpointRouter(PRIMARY, additionalBaseUrls, stickyOrders, ejectionDuration, Duration.ofMinutes(3));
+    }
+
+    private EndpointRouter endpointRouter(URI baseUrl, List<URI> additionalBaseUrls, boolean stickyOrders, Duration ejectionDuration,
+                                          Duration stickyOrderTtl) {
+        meterRegistry = new SimpleMeterRegistry();
+        return new EndpointRouter(BankIdProperties.builder()
+                .baseUrl(baseUrl)
+                .additionalBaseUrls(additionalBaseUrls)
+                .build(), RoutingProperties.builder()
+                .ewmaWeight(0.3)
+                .consecutiveFailures(3)
+                .ejectionDuration(ejectionDuration)
+                .maxEjectedPercent(50)
+                .stickyOrders(stickyOrders)
+                .stickyOrderTtl(stickyOrderTtl)
+                .build(), meterRegistry);
+    }
+
+    private static WebClientResponseException serverError() {
+        return WebClientResponseException.create(HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable", null, null, null);
+    }
+}
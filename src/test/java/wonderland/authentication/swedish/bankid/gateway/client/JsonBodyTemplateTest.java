@@ -0,0 +1,58 @@
+package wonderland.authentication.swedish.bankid.gateway.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class JsonBodyTemplateTest {
+
+    private static final JsonBodyTemplate ORDER_REF_BODY = JsonBodyTemplate.of("{\"orderRef\":\"", "\"}");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void writesBodyWithContentLength() {
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.POST, URI.create("/rp/v6.0/collect"));
+        ORDER_REF_BODY.insert("131daac9-16c6-4618-beb0-365768f37288")
+                .insert(request, mock(BodyInserter.Context.class))
+                .block();
+
+        String body = request.getBodyAsString().block();
+        assertThat(body).isEqualTo("{\"orderRef\":\"131daac9-16c6-4618-beb0-365768f37288\"}");
+        assertThat(request.getHeaders().getContentLength()).isEqualTo(body.length());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"quote\"d", "back\\slash", "line\nbreak", "tab\tand\u0001control", "åäö-ü", "emoji-😀", ""})
+    void escapesInsertedValue(String value) throws Exception {
+        DataBuffer buffer = ORDER_REF_BODY.encode(value, DefaultDataBufferFactory.sharedInstance);
+        String body = buffer.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(buffer);
+
+        assertThat(objectMapper.readValue(body, Map.class)).containsEntry("orderRef", value);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"131daac9-16c6-4618-beb0-365768f37288", "quote\"d", "line\nbreak", ""})
+    void buildsSameBodyAsByteArray(String value) {
+        DataBuffer buffer = ORDER_REF_BODY.encode(value, DefaultDataBufferFactory.sharedInstance);
+        String encoded = buffer.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(buffer);
+
+        assertThat(new String(ORDER_REF_BODY.bytes(value), StandardCharsets.UTF_8)).isEqualTo(encoded);
+    }
+}
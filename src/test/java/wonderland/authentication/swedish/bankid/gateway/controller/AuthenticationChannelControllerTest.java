@@ -0,0 +1,151 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.config.ChannelProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.EventProperties;
+import wonderland.authentication.swedish.bankid.gateway.service.AdmissionRejectedException;
+import wonderland.authentication.swedish.bankid.gateway.service.BankIdService;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuthenticationChannelControllerTest {
+
+    private static final String END_USER_IP = "192.168.1.1";
+    private static final String CHANNEL_PATH = "/v1/methods/swedish-bankid/authentication-channel";
+    private static final ParameterizedTypeReference<ServerSentEvent<Map<String, Object>>> TYPE = new ParameterizedTypeReference<>() {
+    };
+
+    private final BankIdService bankIdService = mock(BankIdService.class);
+    private final WebTestClient testClient = WebTestClient.bindToController(new AuthenticationChannelController(bankIdService,
+                    ChannelProperties.builder().maxOrdersPerChannel(2).build(),
+                    EventProperties.builder().changesOnly(false).heartbeatInterval(Duration.ofHours(1)).build(),
+                    new SimpleMeterRegistry()))
+            .build();
+    private final AtomicReference<String> channel = new AtomicReference<>();
+
+    @Test
+    void multiplexesOrdersTaggedWithReference() {
+        when(bankIdService.authenticationEventStream(END_USER_IP, UseCase.QR, null, null, null))
+                .thenReturn(Flux.just(AuthenticationEvent.pending("0", "qr-0", "outstandingTransaction").withHandle("first"))
+                        .concatWith(Flux.never()));
+        when(bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, null, null))
+                .thenReturn(Flux.just(AuthenticationEvent.failed("0", "userCancel").withHandle("second")));
+
+        StepVerifier.create(openChannel())
+                .assertNext(this::captureChannel)
+                .then(() -> addOrder("counter-1", UseCase.QR).expectStatus().isAccepted())
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo("PENDING");
+                    assertThat(event.id()).startsWith("first");
+                    assertThat(event.data()).containsEntry("r", "counter-1");
+                })
+                .then(() -> addOrder("counter-2", UseCase.SAME_DEVICE).expectStatus().isAccepted())
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo("FAILED");
+                    assertThat(event.data()).containsEntry("r", "counter-2");
+                })
+                .then(() -> addOrder("counter-1", UseCase.QR).expectStatus().isEqualTo(HttpStatus.CONFLICT))
+                .then(() -> removeOrder("counter-1").expectStatus().isNoContent())
+                .then(() -> removeOrder("counter-1").expectStatus().isNotFound())
+                .then(() -> addOrder("counter-1", UseCase.QR).expectStatus().isAccepted())
+                .assertNext(event -> assertThat(event.data()).containsEntry("r", "counter-1"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void reportsRejectedAdmissionAsErrorFrame() {
+        when(bankIdService.authenticationEventStream(END_USER_IP, UseCase.QR, null, null, null))
+                .thenReturn(Flux.error(new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many orders", Duration.ofSeconds(3))));
+
+        StepVerifier.create(openChannel())
+                .assertNext(this::captureChannel)
+                .then(() -> addOrder("counter-1", UseCase.QR).expectStatus().isAccepted())
+                .assertNext(event -> {
+                    assertThat(event.event()).isEqualTo("ERROR");
+                    assertThat(event.data()).containsEntry("r", "counter-1").containsEntry("ra", 3);
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void limitsOrdersPerChannelUnderConcurrentAdds() {
+        when(bankIdService.authenticationEventStream(END_USER_IP, UseCase.QR, null, null, null)).thenReturn(Flux.never());
+
+        StepVerifier.create(openChannel())
+                .assertNext(this::captureChannel)
+                .then(() -> {
+                    long accepted = IntStream.range(0, 16).parallel()
+                            .mapToObj(i -> addOrder("counter-" + i, UseCase.QR).returnResult(Void.class).getStatus())
+                            .filter(HttpStatus.ACCEPTED::equals)
+                            .count();
+                    assertThat(accepted).isEqualTo(2);
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void rejectsCommandsForUnknownChannelOrOtherIp() {
+        channel.set("unknown");
+        addOrder("counter-1", UseCase.QR).expectStatus().isNotFound();
+
+        StepVerifier.create(openChannel())
+                .assertNext(this::captureChannel)
+                .then(() -> testClient.post()
+                        .uri(CHANNEL_PATH + "/{channel}/orders?ref=counter-1&useCase=QR", channel.get())
+                        .header("x-envoy-external-address", "10.0.0.1")
+                        .exchange()
+                        .expectStatus().isNotFound())
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private Flux<ServerSentEvent<Map<String, Object>>> openChannel() {
+        return testClient.get()
+                .uri(CHANNEL_PATH)
+                .header("x-envoy-external-address", END_USER_IP)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(TYPE)
+                .getResponseBody();
+    }
+
+    private void captureChannel(ServerSentEvent<Map<String, Object>> opened) {
+        assertThat(opened.event()).isEqualTo("CHANNEL");
+        channel.set((String) opened.data().get("channel"));
+    }
+
+    private WebTestClient.ResponseSpec addOrder(String ref, UseCase useCase) {
+        return testClient.post()
+                .uri(CHANNEL_PATH + "/{channel}/orders?ref={ref}&useCase={useCase}", channel.get(), ref, useCase)
+                .header("x-envoy-external-address", END_USER_IP)
+                .exchange();
+    }
+
+    private WebTestClient.ResponseSpec removeOrder(String ref) {
+        return testClient.delete()
+                .uri(CHANNEL_PATH + "/{channel}/orders/{ref}", channel.get(), ref)
+                .header("x-envoy-external-address", END_USER_IP)
+                .exchange();
+    }
+}
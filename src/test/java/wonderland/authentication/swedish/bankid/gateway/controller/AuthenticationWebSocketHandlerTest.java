@@ -0,0 +1,138 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.socket.HandshakeInfo;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.config.WebSocketProperties;
+import wonderland.authentication.swedish.bankid.gateway.service.BankIdService;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuthenticationWebSocketHandlerTest {
+
+    private static final String END_USER_IP = "192.168.1.1";
+    private static final Duration NO_FRAME = Duration.ofMillis(100);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BankIdService bankIdService = mock(BankIdService.class);
+    private final Sinks.Many<WebSocketMessage> inbound = Sinks.many().unicast().onBackpressureBuffer();
+    private final Sinks.Many<AuthenticationEvent> events = Sinks.many().unicast().onBackpressureBuffer();
+    private final AtomicReference<Flux<WebSocketMessage>> outbound = new AtomicReference<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("x-envoy-external-address", END_USER_IP);
+        when(session.getHandshakeInfo()).thenReturn(new HandshakeInfo(URI.create("ws://localhost/ws"), headers, Mono.empty(), null));
+        when(session.receive()).thenReturn(inbound.asFlux());
+        when(session.textMessage(anyString())).thenAnswer(invocation -> message(invocation.getArgument(0)));
+        when(session.send(any())).thenAnswer(invocation -> {
+            outbound.set(Flux.from(invocation.getArgument(0)));
+            return Mono.never();
+        });
+        when(bankIdService.authenticationEventStream(END_USER_IP, UseCase.QR, null, null, null)).thenReturn(events.asFlux());
+        new AuthenticationWebSocketHandler(bankIdService, objectMapper, WebSocketProperties.builder()
+                .path("/ws")
+                .maxOrdersPerConnection(4)
+                .build())
+                .handle(session);
+    }
+
+    @Test
+    void holdsLatestPendingBeyondWindowAndReleasesItOnAck() {
+        StepVerifier.create(frameIds())
+                .then(() -> command("{\"op\":\"start\",\"ref\":\"r1\",\"useCase\":\"QR\",\"window\":1}"))
+                .then(() -> events.tryEmitNext(pending("0", "outstandingTransaction")))
+                .expectNext("h:0")
+                .then(() -> events.tryEmitNext(pending("1", "started")))
+                .then(() -> events.tryEmitNext(pending("2", "userSign")))
+                .expectNoEvent(NO_FRAME)
+                .then(() -> command("{\"op\":\"ack\",\"ref\":\"r1\",\"id\":\"h:0\"}"))
+                .expectNext("h:2")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void acknowledgesFramesUpToTheAckedId() {
+        StepVerifier.create(frameIds())
+                .then(() -> command("{\"op\":\"start\",\"ref\":\"r1\",\"useCase\":\"QR\",\"window\":2}"))
+                .then(() -> events.tryEmitNext(pending("0", "outstandingTransaction")))
+                .then(() -> events.tryEmitNext(pending("1", "started")))
+                .expectNext("h:0", "h:1")
+                .then(() -> events.tryEmitNext(pending("2", "userSign")))
+                .then(() -> command("{\"op\":\"ack\",\"ref\":\"r1\",\"id\":\"unknown\"}"))
+                .expectNoEvent(NO_FRAME)
+                .then(() -> command("{\"op\":\"ack\",\"ref\":\"r1\",\"id\":\"h:0\"}"))
+                .expectNext("h:2")
+                .then(() -> events.tryEmitNext(pending("3", "userSign")))
+                .expectNoEvent(NO_FRAME)
+                .then(() -> command("{\"op\":\"ack\",\"ref\":\"r1\"}"))
+                .expectNext("h:3")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void deliversTerminalEventWhenWindowIsFull() {
+        StepVerifier.create(frameIds())
+                .then(() -> command("{\"op\":\"start\",\"ref\":\"r1\",\"useCase\":\"QR\",\"window\":1}"))
+                .then(() -> events.tryEmitNext(pending("0", "outstandingTransaction")))
+                .expectNext("h:0")
+                .then(() -> events.tryEmitNext(pending("1", "userSign")))
+                .then(() -> events.tryEmitNext(AuthenticationEvent.failed("2", "userCancel").withHandle("h")))
+                .expectNext("h:2")
+                .then(() -> command("{\"op\":\"ack\",\"ref\":\"r1\"}"))
+                .expectNoEvent(NO_FRAME)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private Flux<String> frameIds() {
+        return outbound.get().map(message -> (String) decode(message.getPayloadAsText()).get("i"));
+    }
+
+    private void command(String payload) {
+        inbound.tryEmitNext(message(payload));
+    }
+
+    private Map<?, ?> decode(String payload) {
+        try {
+            return objectMapper.readValue(payload, Map.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static AuthenticationEvent pending(String sequence, String hintCode) {
+        return AuthenticationEvent.pending(sequence, null, hintCode).withHandle("h");
+    }
+
+    private static WebSocketMessage message(String payload) {
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT,
+                DefaultDataBufferFactory.sharedInstance.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,114 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.config.EventProperties;
+import wonderland.authentication.swedish.bankid.gateway.service.AdmissionRejectedException;
+import wonderland.authentication.swedish.bankid.gateway.service.BankIdService;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BankIdControllerTest {
+
+    private final BankIdService bankIdService = mock(BankIdService.class);
+    private final WebTestClient testClient = WebTestClient.bindToController(new BankIdController(bankIdService, EventProperties.builder()
+                    .changesOnly(true)
+                    .heartbeatInterval(Duration.ofMillis(50))
+                    .build(), new SimpleMeterRegistry()))
+            .build();
+
+    @Test
+    void rejectsRateLimitedOrderWithRetryAfter() {
+        when(bankIdService.authenticationEventStream("192.168.1.1", UseCase.QR, null, null, null))
+                .thenReturn(Flux.error(new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many orders", Duration.ofMillis(4_200))));
+        testClient.get()
+                .uri("/v1/methods/swedish-bankid/authentication-events?useCase=QR")
+                .header("x-envoy-external-address", "192.168.1.1")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "5");
+    }
+
+    @Test
+    void sendsHeartbeatsBetweenChangesUntilTerminalEvent() {
+        when(bankIdService.authenticationEventStream("192.168.1.1", UseCase.SAME_DEVICE, null, null, null))
+                .thenReturn(Flux.just(AuthenticationEvent.pending("0", "token", "outstandingTransaction"))
+                        .concatWith(Mono.delay(Duration.ofMillis(300)).thenReturn(AuthenticationEvent.failed("1", "userCancel"))));
+        ParameterizedTypeReference<ServerSentEvent<String>> type = new ParameterizedTypeReference<>() {
+        };
+        List<ServerSentEvent<String>> events = testClient.get()
+                .uri("/v1/methods/swedish-bankid/authentication-events?useCase=SAME_DEVICE")
+                .header("x-envoy-external-address", "192.168.1.1")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(type)
+                .getResponseBody()
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(events).isNotNull();
+        assertThat(events.getFirst().event()).isEqualTo("PENDING");
+        assertThat(events.getLast().event()).isEqualTo("FAILED");
+        assertThat(events.subList(1, events.size() - 1))
+                .isNotEmpty()
+                .allSatisfy(heartbeat -> {
+                    assertThat(heartbeat.comment()).isEmpty();
+                    assertThat(heartbeat.data()).isNull();
+                });
+    }
+
+    @Test
+    void preparesOrderAndAttachesEventStreamByHandle() {
+        when(bankIdService.prepare("192.168.1.1", UseCase.QR)).thenReturn(Mono.just("prepared-handle"));
+        when(bankIdService.authenticationEventStream("192.168.1.1", UseCase.QR, null, null, "prepared-handle"))
+                .thenReturn(Flux.just(AuthenticationEvent.failed("0", "userCancel")));
+        testClient.post()
+                .uri("/v1/methods/swedish-bankid/prepare?useCase=QR")
+                .header("x-envoy-external-address", "192.168.1.1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.handle").isEqualTo("prepared-handle");
+        testClient.get()
+                .uri("/v1/methods/swedish-bankid/authentication-events?useCase=QR&handle=prepared-handle")
+                .header("x-envoy-external-address", "192.168.1.1")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .as(StepVerifier::create)
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void rejectsRateLimitedPrepareWithRetryAfter() {
+        when(bankIdService.prepare("192.168.1.1", UseCase.QR))
+                .thenReturn(Mono.error(new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many orders", Duration.ofSeconds(3))));
+        testClient.post()
+                .uri("/v1/methods/swedish-bankid/prepare?useCase=QR")
+                .header("x-envoy-external-address", "192.168.1.1")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "3");
+    }
+}
@@ -0,0 +1,80 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConflatingFluxTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Counter conflated = meterRegistry.counter("conflated");
+    private final DistributionSummary bufferDepth = meterRegistry.summary("depth");
+    private final TestPublisher<String> source = TestPublisher.create();
+
+    @Test
+    void keepsOnlyLatestPendingWhileSubscriberIsBehind() {
+        StepVerifier.create(conflating(), 0)
+                .then(() -> source.next("pending-1", "pending-2", "pending-3"))
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenRequest(1)
+                .expectNext("pending-3")
+                .then(() -> source.next("pending-4"))
+                .thenRequest(1)
+                .expectNext("pending-4")
+                .thenCancel()
+                .verify();
+        assertThat(conflated.count()).isEqualTo(2);
+        assertThat(bufferDepth.max()).isEqualTo(3);
+    }
+
+    @Test
+    void alwaysDeliversTerminalEventAfterDroppingStalePending() {
+        StepVerifier.create(conflating(), 0)
+                .then(() -> source.next("pending-1", "COMPLETE", "pending-2"))
+                .then(source::complete)
+                .thenRequest(1)
+                .expectNext("COMPLETE")
+                .verifyComplete();
+        assertThat(conflated.count()).isEqualTo(2);
+    }
+
+    @Test
+    void heartbeatNeverDisplacesUndeliveredPending() {
+        StepVerifier.create(conflating(), 0)
+                .then(() -> source.next("pending-userSign", "heartbeat"))
+                .expectNoEvent(Duration.ofMillis(10))
+                .thenRequest(1)
+                .expectNext("pending-userSign")
+                .then(() -> source.next("heartbeat", "pending-started"))
+                .thenRequest(1)
+                .expectNext("pending-started")
+                .then(() -> source.next("heartbeat"))
+                .thenRequest(1)
+                .expectNext("heartbeat")
+                .thenCancel()
+                .verify();
+        assertThat(conflated.count()).isZero();
+    }
+
+    @Test
+    void passesEverythingThroughWhenSubscriberKeepsUp() {
+        StepVerifier.create(conflating())
+                .then(() -> source.next("pending-1", "pending-2", "FAILED"))
+                .expectNext("pending-1", "pending-2", "FAILED")
+                .then(source::complete)
+                .verifyComplete();
+        assertThat(conflated.count()).isZero();
+        assertThat(bufferDepth.max()).isEqualTo(1);
+    }
+
+    private ConflatingFlux<String> conflating() {
+        return new ConflatingFlux<>(source.flux(), value -> value.startsWith("pending"), "heartbeat"::equals, conflated, bufferDepth);
+    }
+}
@@ -0,0 +1,88 @@
+package wonderland.authentication.swedish.bankid.gateway.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.ServerSentEventHttpMessageWriter;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.CompletedAuthentication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerSentEventFramesTest {
+
+    private static final String HANDLE = "8f6a3f57-6d0e-4a8e-9a55-4d1f5b1b2a51";
+
+    private final ServerSentEventHttpMessageWriter writer = new ServerSentEventHttpMessageWriter(
+            new Jackson2JsonEncoder(Jackson2ObjectMapperBuilder.json().build()));
+    private final ServerSentEventFrames frames = new ServerSentEventFrames(DefaultDataBufferFactory.sharedInstance);
+
+    @Test
+    void encodesEventsLikeTheServerSentEventCodec() {
+        assertSameFrame(AuthenticationEvent.pending("0", "autoStartToken", "outstandingTransaction").withHandle(HANDLE));
+        assertSameFrame(AuthenticationEvent.pending("1", "autoStartToken", "outstandingTransaction").withHandle(HANDLE));
+        assertSameFrame(AuthenticationEvent.pending("2", "autoStartToken", "userSign").withHandle(HANDLE));
+        assertSameFrame(AuthenticationEvent.pending("3", "bankid.qrStartToken.3.2a9c0d", null).withHandle(HANDLE));
+        assertSameFrame(AuthenticationEvent.failed("4", "userCancel").withHandle(HANDLE));
+        assertSameFrame(AuthenticationEvent.complete("5", new CompletedAuthentication("orderRef", "190001010101")).withHandle(HANDLE));
+        assertSameFrame(AuthenticationEvent.error());
+        assertSameFrame(AuthenticationEvent.pending("6", "quote\" back\\slash\nnewline åäö \u0001", "hint\tcode"));
+    }
+
+    @Test
+    void allocatesExactlyTheFrameSize() {
+        String qrData = "bankid.67df3917-fa0d-44e5-b327-edcc928297f8.42." + "a1b2c3d4e5f60718293a4b5c6d7e8f90".repeat(2);
+        AuthenticationEvent[] events = {
+                AuthenticationEvent.pending("0", qrData, "outstandingTransaction").withHandle(HANDLE),
+                AuthenticationEvent.pending("1", qrData, "outstandingTransaction").withHandle(HANDLE),
+                AuthenticationEvent.pending("2", qrData, "outstandingTransaction").withHandle(HANDLE),
+                AuthenticationEvent.pending("3", "\u00e5\u00e4\u00f6 \ud83d\ude00 \"quoted\"", null).withHandle("h\u00e4ndle"),
+                AuthenticationEvent.complete("4", new CompletedAuthentication("orderRef", "190001010101")).withHandle(HANDLE)
+        };
+        for (AuthenticationEvent event : events) {
+            DataBuffer buffer = frames.encode(event);
+            assertThat(buffer.capacity()).isEqualTo(buffer.readableByteCount());
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    @Test
+    void encodesHeartbeatAsEmptyComment() {
+        assertThat(encode(ServerSentEventFrames.HEARTBEAT))
+                .isEqualTo(write(ServerSentEvent.builder().comment("").build()))
+                .isEqualTo(":\n\n");
+    }
+
+    private void assertSameFrame(AuthenticationEvent authenticationEvent) {
+        assertThat(encode(authenticationEvent)).isEqualTo(write(ServerSentEvent.<AuthenticationEvent>builder()
+                .id(authenticationEvent.eventId())
+                .event(authenticationEvent.status().toString())
+                .data(authenticationEvent)
+                .build()));
+    }
+
+    private String encode(AuthenticationEvent authenticationEvent) {
+        DataBuffer buffer = frames.encode(authenticationEvent);
+        String frame = buffer.toString(StandardCharsets.UTF_8);
+        DataBufferUtils.release(buffer);
+        return frame;
+    }
+
+    private String write(ServerSentEvent<?> serverSentEvent) {
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        writer.write(Mono.just(serverSentEvent), ResolvableType.forClass(ServerSentEvent.class), MediaType.TEXT_EVENT_STREAM, response, Map.of())
+                .block();
+        return response.getBodyAsString().block();
+    }
+}
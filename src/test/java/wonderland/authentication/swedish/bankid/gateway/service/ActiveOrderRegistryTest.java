@@ -0,0 +1,90 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.junit.jupiter.api.Test;
+import wonderland.authentication.swedish.bankid.gateway.type.ActiveOrder;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.HintCode;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ActiveOrderRegistryTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+
+    @Test
+    void tracksOrderState() {
+        ActiveOrderRegistry registry = new ActiveOrderRegistry();
+        assertThat(registry.register(ORDER_REFERENCE, UseCase.QR, 1_000L)).isTrue();
+        assertThat(registry.register(ORDER_REFERENCE, UseCase.QR, 2_000L)).isFalse();
+        registry.attach(ORDER_REFERENCE);
+        registry.attach(ORDER_REFERENCE);
+        registry.detach(ORDER_REFERENCE);
+        assertThat(registry.countAwaitingFirstCollect()).isEqualTo(1);
+        registry.update(ORDER_REFERENCE, CollectResponse.Status.PENDING, "userSign");
+
+        assertThat(registry.find(ORDER_REFERENCE)).contains(
+                new ActiveOrder(ORDER_REFERENCE, UseCase.QR, 1_000L, CollectResponse.Status.PENDING, HintCode.USER_SIGN, 1));
+        assertThat(registry.countByUseCase()).containsEntry(UseCase.QR, 1).containsEntry(UseCase.SAME_DEVICE, 0);
+        assertThat(registry.countByStatus()).containsEntry(CollectResponse.Status.PENDING, 1);
+        assertThat(registry.countAwaitingFirstCollect()).isZero();
+
+        registry.update(ORDER_REFERENCE, CollectResponse.Status.FAILED, "someNewHintCode");
+        assertThat(registry.remove(ORDER_REFERENCE)).hasValueSatisfying(activeOrder -> {
+            assertThat(activeOrder.status()).isEqualTo(CollectResponse.Status.FAILED);
+            assertThat(activeOrder.hintCode()).isEqualTo(HintCode.UNKNOWN);
+        });
+        assertThat(registry.find(ORDER_REFERENCE)).isEmpty();
+        assertThat(registry.size()).isZero();
+        assertThat(registry.countByStatus()).containsEntry(CollectResponse.Status.FAILED, 0);
+    }
+
+    @Test
+    void ignoresOrderReferencesThatAreNotUuids() {
+        ActiveOrderRegistry registry = new ActiveOrderRegistry();
+        assertThat(registry.register("someOrderRef", UseCase.QR, 0L)).isFalse();
+        assertThat(registry.find("someOrderRef")).isEmpty();
+        assertThat(registry.size()).isZero();
+    }
+
+    @Test
+    void matchesHashMapUnderRandomInsertsAndRemovals() {
+        ActiveOrderRegistry registry = new ActiveOrderRegistry(16);
+        Map<String, Long> expected = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            if (keys.isEmpty() || random.nextInt(3) > 0) {
+                String orderReference = new UUID(random.nextLong(), random.nextLong()).toString();
+                keys.add(orderReference);
+                expected.put(orderReference, (long) i);
+                assertThat(registry.register(orderReference, UseCase.SAME_DEVICE, i)).isTrue();
+            } else {
+                String orderReference = keys.remove(random.nextInt(keys.size()));
+                assertThat(registry.remove(orderReference).map(ActiveOrder::startedAtMillis)).contains(expected.remove(orderReference));
+            }
+        }
+        assertThat(registry.size()).isEqualTo(expected.size());
+        expected.forEach((orderReference, startedAt) ->
+                assertThat(registry.find(orderReference).map(ActiveOrder::startedAtMillis)).contains(startedAt));
+
+        Set<String> listed = new HashSet<>();
+        for (int page = 0; ; page++) {
+            List<ActiveOrder> orders = registry.list(page * 500, 500);
+            if (orders.isEmpty()) {
+                break;
+            }
+            orders.forEach(activeOrder -> listed.add(activeOrder.orderRef()));
+        }
+        assertThat(listed).isEqualTo(expected.keySet());
+    }
+}
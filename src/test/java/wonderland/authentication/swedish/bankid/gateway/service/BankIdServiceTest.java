@@ -0,0 +1,204 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.EventProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.CompletedAuthenticationRepository;
+import wonderland.authentication.swedish.bankid.gateway.repository.OrderSessionRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BankIdServiceTest {
+
+    private static final String END_USER_IP = "192.168.1.1";
+    private static final OrderSession PREPARED_SESSION = new OrderSession("prepared-handle", "6f0c8b0e-2f5d-4f64-9d43-0c5d1a0b7f11",
+            UseCase.SAME_DEVICE, END_USER_IP, "autoStartToken", null, null, 0L, AuthenticationStatus.PENDING);
+    private static final OrderSession FRESH_SESSION = new OrderSession("fresh-handle", "0b6a2e9c-91a4-4c1e-8a55-3d2f7c9e4b20",
+            UseCase.SAME_DEVICE, END_USER_IP, "autoStartToken", null, null, 0L, AuthenticationStatus.PENDING);
+
+    private OrderSessionRepository orderSessionRepository;
+    private CollectSource collectSource;
+    private OrderCoalescer orderCoalescer;
+    private PreparedOrders preparedOrders;
+    private ActiveOrderRegistry activeOrderRegistry;
+    private BankIdService bankIdService;
+
+    @BeforeEach
+    void setUp() {
+        orderSessionRepository = mock(OrderSessionRepository.class);
+        collectSource = mock(CollectSource.class);
+        orderCoalescer = mock(OrderCoalescer.class);
+        preparedOrders = mock(PreparedOrders.class);
+        when(orderSessionRepository.updateStatus(any(), any())).thenReturn(Mono.just(true));
+        when(orderCoalescer.coalesce(eq(END_USER_IP), eq(UseCase.SAME_DEVICE), isNull(), any())).thenReturn(Mono.just(FRESH_SESSION));
+        when(collectSource.schedule(any(), eq(UseCase.SAME_DEVICE), anyLong()))
+                .thenAnswer(invocation -> Flux.just(failedTick(invocation.getArgument(0))));
+        activeOrderRegistry = new ActiveOrderRegistry();
+        bankIdService = bankIdService(mock(BankIdClient.class), collectSource);
+    }
+
+    @Test
+    void attachesToPreparedOrderOnceClaimed() {
+        when(orderSessionRepository.find("prepared-handle")).thenReturn(Mono.just(PREPARED_SESSION));
+        when(preparedOrders.claim("prepared-handle")).thenReturn(Mono.just(true));
+        StepVerifier.create(bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, null, "prepared-handle"))
+                .expectNextMatches(event -> event.handle().equals("prepared-handle") && event.status() == AuthenticationStatus.FAILED)
+                .verifyComplete();
+        verify(collectSource, never()).schedule(eq(FRESH_SESSION.orderRef()), any(), anyLong());
+    }
+
+    @Test
+    void startsFreshOrderWhenPreparedHandleWasAlreadyClaimed() {
+        when(orderSessionRepository.find("prepared-handle")).thenReturn(Mono.just(PREPARED_SESSION));
+        when(preparedOrders.claim("prepared-handle")).thenReturn(Mono.just(false));
+        StepVerifier.create(bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, null, "prepared-handle"))
+                .expectNextMatches(event -> event.handle().equals("fresh-handle"))
+                .verifyComplete();
+        verify(collectSource, never()).schedule(eq(PREPARED_SESSION.orderRef()), any(), anyLong());
+    }
+
+    @Test
+    void doesNotClaimPreparedOrderForAnotherClient() {
+        when(orderSessionRepository.find("prepared-handle")).thenReturn(Mono.just(PREPARED_SESSION));
+        when(orderCoalescer.coalesce(eq("10.0.0.1"), eq(UseCase.SAME_DEVICE), isNull(), any())).thenReturn(Mono.just(FRESH_SESSION));
+        StepVerifier.create(bankIdService.authenticationEventStream("10.0.0.1", UseCase.SAME_DEVICE, null, null, "prepared-handle"))
+                .expectNextMatches(event -> event.handle().equals("fresh-handle"))
+                .verifyComplete();
+        verify(preparedOrders, never()).claim(any());
+    }
+
+    @Test
+    void sharesOneCollectBetweenStreamsOfTheSameOrder() {
+        OrderSession liveSession = new OrderSession("live-handle", FRESH_SESSION.orderRef(), UseCase.SAME_DEVICE, END_USER_IP,
+                "autoStartToken", null, null, System.currentTimeMillis(), AuthenticationStatus.PENDING);
+        when(orderCoalescer.coalesce(eq(END_USER_IP), eq(UseCase.SAME_DEVICE), eq("tab"), any())).thenReturn(Mono.just(liveSession));
+        BankIdClient bankIdClient = mock(BankIdClient.class);
+        when(bankIdClient.collect(eq(liveSession.orderRef()), any(Duration.class)))
+                .thenReturn(Mono.just(new CollectResponse(liveSession.orderRef(), CollectResponse.Status.PENDING, "outstandingTransaction", null)));
+        CollectProperties collectProperties = CollectProperties.builder()
+                .interval(Duration.ofMillis(100))
+                .orderTimeout(Duration.ofSeconds(10))
+                .tick(Duration.ofMillis(10))
+                .wheelSize(64)
+                .build();
+        CollectScheduler collectScheduler = new CollectScheduler(bankIdClient, collectProperties, new CollectPollingPolicy(collectProperties),
+                mock(OrderCancellationQueue.class), new SimpleMeterRegistry());
+        bankIdService = bankIdService(bankIdClient, collectScheduler);
+        List<AuthenticationEvent> first = new CopyOnWriteArrayList<>();
+        List<AuthenticationEvent> second = new CopyOnWriteArrayList<>();
+        Disposable firstStream = bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, "tab", null).subscribe(first::add);
+        Disposable secondStream = bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, "tab", null).subscribe(second::add);
+        try {
+            await().until(() -> first.size() >= 3 && second.size() >= 3);
+            int collectCalls = mockingDetails(bankIdClient).getInvocations().size();
+            assertThat(collectCalls).isLessThanOrEqualTo(Math.min(first.size(), second.size()) + 1);
+            assertThat(collectScheduler.activeOrders()).isEqualTo(1);
+
+            firstStream.dispose();
+            int seen = second.size();
+            await().until(() -> second.size() > seen);
+            assertThat(activeOrderRegistry.find(liveSession.orderRef())).isPresent();
+
+            secondStream.dispose();
+            await().until(() -> activeOrderRegistry.find(liveSession.orderRef()).isEmpty());
+            assertThat(collectScheduler.activeOrders()).isZero();
+        } finally {
+            firstStream.dispose();
+            secondStream.dispose();
+            collectScheduler.destroy();
+        }
+    }
+
+    @Test
+    void reattachesWhileLastStreamOfOrderIsCancelling() throws Exception {
+        OrderSession liveSession = new OrderSession("live-handle", FRESH_SESSION.orderRef(), UseCase.SAME_DEVICE, END_USER_IP,
+                "autoStartToken", null, null, System.currentTimeMillis(), AuthenticationStatus.PENDING);
+        when(orderCoalescer.coalesce(eq(END_USER_IP), eq(UseCase.SAME_DEVICE), eq("tab"), any())).thenReturn(Mono.just(liveSession));
+        BankIdClient bankIdClient = mock(BankIdClient.class);
+        when(bankIdClient.collect(eq(liveSession.orderRef()), any(Duration.class)))
+                .thenReturn(Mono.just(new CollectResponse(liveSession.orderRef(), CollectResponse.Status.PENDING, "outstandingTransaction", null)));
+        CollectProperties collectProperties = CollectProperties.builder()
+                .interval(Duration.ofMillis(20))
+                .orderTimeout(Duration.ofSeconds(30))
+                .tick(Duration.ofMillis(5))
+                .wheelSize(64)
+                .build();
+        CollectScheduler collectScheduler = new CollectScheduler(bankIdClient, collectProperties, new CollectPollingPolicy(collectProperties),
+                mock(OrderCancellationQueue.class), new SimpleMeterRegistry());
+        bankIdService = bankIdService(bankIdClient, collectScheduler);
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        try {
+            for (int i = 0; i < 50; i++) {
+                List<AuthenticationEvent> first = new CopyOnWriteArrayList<>();
+                Disposable firstStream = bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, "tab", null).subscribe(first::add);
+                await().until(() -> !first.isEmpty());
+                List<AuthenticationEvent> second = new CopyOnWriteArrayList<>();
+                List<Throwable> errors = new CopyOnWriteArrayList<>();
+                AtomicReference<Disposable> secondStream = new AtomicReference<>();
+                CompletableFuture<Void> cancel = CompletableFuture.runAsync(() -> {
+                    awaitBarrier(barrier);
+                    firstStream.dispose();
+                });
+                awaitBarrier(barrier);
+                secondStream.set(bankIdService.authenticationEventStream(END_USER_IP, UseCase.SAME_DEVICE, null, "tab", null)
+                        .subscribe(second::add, errors::add));
+                cancel.get();
+                await().until(() -> !second.isEmpty() || !errors.isEmpty());
+                assertThat(errors).isEmpty();
+                assertThat(second).allMatch(event -> event.status() == AuthenticationStatus.PENDING);
+                secondStream.get().dispose();
+                await().until(() -> collectScheduler.activeOrders() == 0);
+            }
+        } finally {
+            collectScheduler.destroy();
+        }
+    }
+
+    private static void awaitBarrier(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private BankIdService bankIdService(BankIdClient bankIdClient, CollectSource collectSource) {
+        return new BankIdService(mock(CompletedAuthenticationRepository.class), orderSessionRepository, bankIdClient,
+                collectSource, mock(OrderClock.class), mock(QrCodeGenerator.class), activeOrderRegistry, mock(AdmissionControl.class),
+                orderCoalescer, preparedOrders, EventProperties.builder().changesOnly(false).heartbeatInterval(Duration.ofSeconds(15)).build());
+    }
+
+    private static CollectTick failedTick(String orderReference) {
+        return new CollectTick(0, new CollectResponse(orderReference, CollectResponse.Status.FAILED, "userCancel", null));
+    }
+}
@@ -0,0 +1,138 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveRedisOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import wonderland.authentication.swedish.bankid.gateway.config.ClusterProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.OrderOwnershipRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectTick;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ClusterCollectRouterTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+    private static final String NODE_ID = "node-a";
+    private static final String OTHER_NODE_ID = "node-b";
+    private static final Duration LEASE_TTL = Duration.ofMillis(300);
+
+    private LocalCollectSource localCollectSource;
+    private ClusterMembership clusterMembership;
+    private OrderCancellationQueue orderCancellationQueue;
+    private OrderOwnershipRepository orderOwnershipRepository;
+    private ReactiveRedisOperations<String, String> redisOperations;
+    private ClusterCollectRouter clusterCollectRouter;
+    private final Sinks.Many<CollectTick> localTicks = Sinks.many().multicast().onBackpressureBuffer();
+    private final AtomicBoolean localCollectCancelled = new AtomicBoolean();
+    private final List<CollectTick> received = new CopyOnWriteArrayList<>();
+    private Disposable subscription;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        localCollectSource = mock(LocalCollectSource.class);
+        clusterMembership = mock(ClusterMembership.class);
+        orderCancellationQueue = mock(OrderCancellationQueue.class);
+        orderOwnershipRepository = mock(OrderOwnershipRepository.class);
+        redisOperations = mock(ReactiveRedisOperations.class);
+        ReactiveRedisMessageListenerContainer listenerContainer = mock(ReactiveRedisMessageListenerContainer.class);
+        when(clusterMembership.nodeId()).thenReturn(NODE_ID);
+        when(localCollectSource.schedule(eq(ORDER_REFERENCE), any(), anyLong()))
+                .thenReturn(localTicks.asFlux().doOnCancel(() -> localCollectCancelled.set(true)));
+        when(orderOwnershipRepository.release(anyString(), anyString())).thenReturn(Mono.just(true));
+        when(redisOperations.convertAndSend(anyString(), anyString())).thenReturn(Mono.just(1L));
+        doReturn(Flux.never()).when(listenerContainer).receive(any(ChannelTopic.class));
+        doReturn(Mono.just(Flux.never())).when(listenerContainer).receiveLater(any(ChannelTopic.class));
+        ClusterProperties clusterProperties = ClusterProperties.builder()
+                .enabled(true)
+                .nodeId(NODE_ID)
+                .leaseTtl(LEASE_TTL)
+                .heartbeatInterval(Duration.ofMillis(50))
+                .virtualNodes(16)
+                .build();
+        clusterCollectRouter = new ClusterCollectRouter(localCollectSource, clusterMembership, orderCancellationQueue, orderOwnershipRepository,
+                redisOperations, listenerContainer, new ObjectMapper(), clusterProperties, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        clusterCollectRouter.destroy();
+    }
+
+    @Test
+    void renewsLeaseOnItsOwnTimerWhileOwningOrder() {
+        when(clusterMembership.owner(ORDER_REFERENCE)).thenReturn(NODE_ID);
+        when(orderOwnershipRepository.claim(ORDER_REFERENCE, NODE_ID, LEASE_TTL)).thenReturn(Mono.just(true));
+        when(orderOwnershipRepository.renew(ORDER_REFERENCE, NODE_ID, LEASE_TTL)).thenReturn(Mono.just(true));
+        subscribe();
+        verify(orderOwnershipRepository, timeout(1000).atLeast(3)).renew(ORDER_REFERENCE, NODE_ID, LEASE_TTL);
+        assertThat(localCollectCancelled).isFalse();
+        localTicks.tryEmitNext(pendingTick());
+        await().untilAsserted(() -> assertThat(received).hasSize(1));
+        verify(redisOperations, timeout(1000)).convertAndSend(eq("order-ticks:" + ORDER_REFERENCE), anyString());
+    }
+
+    @Test
+    void handsOrderToNewOwnerWhenLeaseIsLost() {
+        when(clusterMembership.owner(ORDER_REFERENCE)).thenReturn(NODE_ID, OTHER_NODE_ID);
+        when(orderOwnershipRepository.claim(ORDER_REFERENCE, NODE_ID, LEASE_TTL)).thenReturn(Mono.just(true));
+        when(orderOwnershipRepository.renew(ORDER_REFERENCE, NODE_ID, LEASE_TTL)).thenReturn(Mono.just(true), Mono.just(false));
+        when(orderOwnershipRepository.owner(ORDER_REFERENCE)).thenReturn(Mono.just(OTHER_NODE_ID));
+        subscribe();
+        await().untilTrue(localCollectCancelled);
+        verify(orderCancellationQueue).revoke(ORDER_REFERENCE);
+        verify(redisOperations, timeout(1000)).convertAndSend(eq("node-watch:" + OTHER_NODE_ID), anyString());
+        verify(redisOperations, never()).convertAndSend(eq("order-ticks:" + ORDER_REFERENCE), anyString());
+    }
+
+    @Test
+    void watcherTakesOverOrderWhenOwnerLeaseExpires() {
+        when(clusterMembership.owner(ORDER_REFERENCE)).thenReturn(OTHER_NODE_ID, NODE_ID);
+        when(orderOwnershipRepository.owner(ORDER_REFERENCE)).thenReturn(Mono.empty());
+        when(orderOwnershipRepository.claim(ORDER_REFERENCE, NODE_ID, LEASE_TTL)).thenReturn(Mono.just(true));
+        when(orderOwnershipRepository.renew(ORDER_REFERENCE, NODE_ID, LEASE_TTL)).thenReturn(Mono.just(true));
+        subscribe();
+        verify(localCollectSource, timeout(1000)).schedule(eq(ORDER_REFERENCE), eq(UseCase.QR), anyLong());
+        localTicks.tryEmitNext(pendingTick());
+        await().untilAsserted(() -> assertThat(received).hasSize(1));
+    }
+
+    private void subscribe() {
+        subscription = clusterCollectRouter.schedule(ORDER_REFERENCE, UseCase.QR, System.currentTimeMillis())
+                .subscribe(received::add);
+    }
+
+    private static CollectTick pendingTick() {
+        return new CollectTick(0, new CollectResponse(ORDER_REFERENCE, CollectResponse.Status.PENDING, "outstandingTransaction", null));
+    }
+}
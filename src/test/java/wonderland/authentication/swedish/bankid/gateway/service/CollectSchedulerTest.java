@@ -0,0 +1,235 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.client.CircuitOpenException;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CollectSchedulerTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+
+    private BankIdClient bankIdClient;
+    private OrderCancellationQueue orderCancellationQueue;
+    private MeterRegistry meterRegistry;
+    private CollectScheduler collectScheduler;
+
+    @BeforeEach
+    void setUp() {
+        bankIdClient = mock(BankIdClient.class);
+        orderCancellationQueue = mock(OrderCancellationQueue.class);
+        meterRegistry = new SimpleMeterRegistry();
+        CollectProperties collectProperties = CollectProperties.builder()
+                .interval(Duration.ofMillis(100))
+                .hintCodeIntervals(Map.of(UseCase.QR, Map.of("outstandingTransaction", Duration.ofMillis(250))))
+                .orderTimeout(Duration.ofMillis(550))
+                .tick(Duration.ofMillis(10))
+                .wheelSize(64)
+                .build();
+        collectScheduler = new CollectScheduler(bankIdClient, collectProperties, new CollectPollingPolicy(collectProperties),
+                orderCancellationQueue, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        collectScheduler.destroy();
+    }
+
+    @Test
+    void collectsOncePerIntervalUntilOrderTimeout() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(Mono.just(collectResponse(CollectResponse.Status.PENDING)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 0)
+                .expectNextMatches(tick -> tick.sequence() == 1)
+                .expectNextMatches(tick -> tick.sequence() == 2)
+                .expectNextMatches(tick -> tick.sequence() == 3)
+                .expectNextMatches(tick -> tick.sequence() == 4)
+                .expectNextMatches(tick -> tick.sequence() == 5)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+        assertThat(collectScheduler.activeOrders()).isZero();
+        verify(orderCancellationQueue).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void completesOnTerminalStatus() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(Mono.just(collectResponse(CollectResponse.Status.FAILED)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        verify(bankIdClient, times(1)).collect(eq(ORDER_REFERENCE), any(Duration.class));
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+        verify(orderCancellationQueue, never()).cancelAfterGracePeriod(ORDER_REFERENCE);
+    }
+
+    @Test
+    void stopsCollectingWhenSubscriberCancels() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(Mono.just(collectResponse(CollectResponse.Status.PENDING)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()).take(2))
+                .expectNextCount(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertThat(collectScheduler.activeOrders()).isZero();
+        await().during(Duration.ofMillis(300)).atMost(Duration.ofMillis(500))
+                .untilAsserted(() -> verify(bankIdClient, times(2)).collect(eq(ORDER_REFERENCE), any(Duration.class)));
+        verify(orderCancellationQueue).cancelAfterGracePeriod(ORDER_REFERENCE);
+    }
+
+    @Test
+    void disposesCollectStartedWhileSubscriberCancels() {
+        AtomicReference<Disposable> subscription = new AtomicReference<>();
+        AtomicBoolean collectCancelled = new AtomicBoolean();
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(Mono.<CollectResponse>never()
+                .doOnSubscribe(_ -> {
+                    CompletableFuture.runAsync(() -> await().until(subscription::get, Objects::nonNull).dispose());
+                    sleep(Duration.ofMillis(100));
+                })
+                .doOnCancel(() -> collectCancelled.set(true)));
+        subscription.set(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()).subscribe());
+        await().atMost(Duration.ofSeconds(1)).untilTrue(collectCancelled);
+        assertThat(collectScheduler.activeOrders()).isZero();
+    }
+
+    @Test
+    void schedulesOrderAgainAfterPreviousSubscriberLeft() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(Mono.just(collectResponse(CollectResponse.Status.PENDING)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()).take(1)
+                        .concatWith(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()).take(1)))
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+
+    @Test
+    void collectsLessOftenWhileHintCodeHasSlowerInterval() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(Mono.just(collectResponse(CollectResponse.Status.PENDING, "outstandingTransaction")));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.QR, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 0)
+                .expectNextMatches(tick -> tick.sequence() == 1)
+                .expectNextMatches(tick -> tick.sequence() == 2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+        assertThat(meterRegistry.get("bankid.collect.calls").tag("useCase", "QR").counter().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("bankid.collect.calls.saved.per.order").tag("useCase", "QR").summary().totalAmount()).isEqualTo(3);
+    }
+
+    @Test
+    void skipsTicksWhileCollectIsInFlight() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenReturn(Mono.delay(Duration.ofMillis(120)).thenReturn(collectResponse(CollectResponse.Status.PENDING)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 0)
+                .expectNextMatches(tick -> tick.sequence() == 1)
+                .expectNextMatches(tick -> tick.sequence() == 2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+        assertThat(meterRegistry.get("bankid.collect.calls").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("bankid.collect.skipped").tag("useCase", "SAME_DEVICE").counter().count()).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    void passesRemainingOrderBudgetAsCollectDeadline() {
+        ArgumentCaptor<Duration> budget = ArgumentCaptor.forClass(Duration.class);
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), budget.capture())).thenReturn(Mono.just(collectResponse(CollectResponse.Status.PENDING)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis() - 300))
+                .expectNextCount(3)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+        assertThat(budget.getAllValues())
+                .allSatisfy(deadline -> assertThat(deadline).isPositive().isLessThanOrEqualTo(Duration.ofMillis(250)))
+                .isSortedAccordingTo(Comparator.reverseOrder());
+    }
+
+    @Test
+    void retriesOnNextTickAfterCollectTimeout() {
+        WebClientRequestException timeout = new WebClientRequestException(ReadTimeoutException.INSTANCE, HttpMethod.POST,
+                URI.create("https://localhost/rp/v6.0/collect"), new HttpHeaders());
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenReturn(Mono.error(timeout))
+                .thenReturn(Mono.just(collectResponse(CollectResponse.Status.FAILED)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 1 && tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertThat(meterRegistry.get("bankid.collect.timeouts").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(1);
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void keepsOrderPendingWhileCircuitIsOpen() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenReturn(Mono.error(new CircuitOpenException(Duration.ofSeconds(1))))
+                .thenReturn(Mono.error(new CircuitOpenException(Duration.ofSeconds(1))))
+                .thenReturn(Mono.just(collectResponse(CollectResponse.Status.FAILED)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 2 && tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertThat(meterRegistry.get("bankid.collect.circuit.open").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(2);
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void retriesOnNextTickAfterServerError() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenReturn(Mono.error(WebClientResponseException.create(HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable", null, null, null)))
+                .thenReturn(Mono.just(collectResponse(CollectResponse.Status.FAILED)));
+        StepVerifier.create(collectScheduler.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 1 && tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertThat(meterRegistry.get("bankid.collect.errors").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(1);
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CollectResponse collectResponse(CollectResponse.Status status) {
+        return collectResponse(status, "hintCode");
+    }
+
+    private static CollectResponse collectResponse(CollectResponse.Status status, String hintCode) {
+        return new CollectResponse(ORDER_REFERENCE, status, hintCode, null);
+    }
+}
@@ -0,0 +1,45 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final List<String> ORDER_REFERENCES = IntStream.range(0, 20_000)
+            .mapToObj(i -> new UUID(i * 0x9E3779B97F4A7C15L, i).toString())
+            .toList();
+
+    @Test
+    void spreadsOrdersEvenlyOverNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d"), 128);
+        Map<String, Integer> ordersPerNode = new HashMap<>();
+        ORDER_REFERENCES.forEach(orderReference -> ordersPerNode.merge(ring.owner(orderReference), 1, Integer::sum));
+        assertThat(ordersPerNode).hasSize(4);
+        assertThat(ordersPerNode.values()).allSatisfy(orders -> assertThat(orders).isBetween(4_000, 6_000));
+    }
+
+    @Test
+    void movesOnlyOrdersOfTheNewNodeWhenScalingOut() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("node-a", "node-b", "node-c"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d"), 128);
+        long moved = ORDER_REFERENCES.stream()
+                .filter(orderReference -> !before.owner(orderReference).equals(after.owner(orderReference)))
+                .peek(orderReference -> assertThat(after.owner(orderReference)).isEqualTo("node-d"))
+                .count();
+        assertThat(moved).isBetween(3_500L, 6_500L);
+    }
+
+    @Test
+    void ownerDoesNotDependOnNodeOrder() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("node-a", "node-b"), 16);
+        ConsistentHashRing reversed = new ConsistentHashRing(List.of("node-b", "node-a"), 16);
+        ORDER_REFERENCES.forEach(orderReference -> assertThat(ring.owner(orderReference)).isEqualTo(reversed.owner(orderReference)));
+    }
+}
@@ -0,0 +1,55 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.junit.jupiter.api.Test;
+import wonderland.authentication.swedish.bankid.gateway.config.AdmissionProperties;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IpRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final IpRateLimiter ipRateLimiter = new IpRateLimiter(AdmissionProperties.builder()
+            .burst(3)
+            .refillPeriod(Duration.ofSeconds(2))
+            .stripes(1024)
+            .maxInFlightOrders(10)
+            .capacityRetryAfter(Duration.ofSeconds(1))
+            .build());
+
+    @Test
+    void allowsBurstThenRefillsOneTokenPerPeriod() {
+        long now = 10 * SECOND;
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isZero();
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isZero();
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isZero();
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isEqualTo(2 * SECOND);
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now + SECOND)).isEqualTo(SECOND);
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now + 2 * SECOND)).isZero();
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now + 2 * SECOND)).isEqualTo(2 * SECOND);
+    }
+
+    @Test
+    void bucketsAreIndependentPerIp() {
+        long now = 10 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isZero();
+        }
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isPositive();
+        assertThat(ipRateLimiter.tryAcquire("192.168.2.2", now)).isZero();
+    }
+
+    @Test
+    void fullBucketAfterIdlePeriodAllowsOnlyTheBurst() {
+        long now = 10 * SECOND;
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", now)).isZero();
+        long later = now + 60 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertThat(ipRateLimiter.tryAcquire("192.168.1.1", later)).isZero();
+        }
+        assertThat(ipRateLimiter.tryAcquire("192.168.1.1", later)).isPositive();
+    }
+}
@@ -0,0 +1,156 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.client.BankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.config.CancelProperties;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.PendingCancelRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderCancellationQueueTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+
+    private BankIdClient bankIdClient;
+    private MeterRegistry meterRegistry;
+    private CancelProperties cancelProperties;
+    private final PendingCancelRepository pendingCancelRepository = new InMemoryPendingCancelRepository();
+    private OrderCancellationQueue orderCancellationQueue;
+
+    @BeforeEach
+    void setUp() {
+        bankIdClient = mock(BankIdClient.class);
+        when(bankIdClient.cancel(anyString())).thenReturn(Mono.empty());
+        meterRegistry = new SimpleMeterRegistry();
+        cancelProperties = CancelProperties.builder()
+                .queueCapacity(16)
+                .batchSize(4)
+                .batchWindow(Duration.ofMillis(20))
+                .concurrency(2)
+                .disconnectGracePeriod(Duration.ofMillis(200))
+                .build();
+        orderCancellationQueue = new OrderCancellationQueue(bankIdClient, pendingCancelRepository, cancelProperties, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        orderCancellationQueue.destroy();
+    }
+
+    @Test
+    void cancelsInBackground() {
+        orderCancellationQueue.cancel(ORDER_REFERENCE);
+        verify(bankIdClient, timeout(1000)).cancel(ORDER_REFERENCE);
+        await().untilAsserted(() -> assertThat(meterRegistry.get("bankid.cancel.calls").tag("outcome", "success").counter().count()).isEqualTo(1));
+    }
+
+    @Test
+    void cancelsAfterGracePeriod() {
+        orderCancellationQueue.cancelAfterGracePeriod(ORDER_REFERENCE);
+        verify(bankIdClient, after(100).never()).cancel(ORDER_REFERENCE);
+        verify(bankIdClient, timeout(1000)).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void revokedCancellationIsNotSent() {
+        orderCancellationQueue.cancelAfterGracePeriod(ORDER_REFERENCE);
+        assertThat(orderCancellationQueue.revoke(ORDER_REFERENCE)).isTrue();
+        verify(bankIdClient, after(400).never()).cancel(anyString());
+    }
+
+    @Test
+    void resumeOnAnotherNodeRevokesPendingCancellation() {
+        when(bankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenReturn(Mono.just(new CollectResponse(ORDER_REFERENCE, CollectResponse.Status.PENDING, "outstandingTransaction", null)));
+        OrderCancellationQueue otherNodeQueue = new OrderCancellationQueue(bankIdClient, pendingCancelRepository, cancelProperties,
+                new SimpleMeterRegistry());
+        CollectProperties collectProperties = CollectProperties.builder()
+                .interval(Duration.ofMillis(100))
+                .orderTimeout(Duration.ofSeconds(10))
+                .tick(Duration.ofMillis(10))
+                .wheelSize(64)
+                .build();
+        CollectScheduler otherNode = new CollectScheduler(bankIdClient, collectProperties, new CollectPollingPolicy(collectProperties),
+                otherNodeQueue, new SimpleMeterRegistry());
+        orderCancellationQueue.cancelAfterGracePeriod(ORDER_REFERENCE);
+        Disposable resumed = otherNode.schedule(ORDER_REFERENCE, UseCase.QR, System.currentTimeMillis()).subscribe();
+        try {
+            verify(bankIdClient, after(400).never()).cancel(anyString());
+        } finally {
+            resumed.dispose();
+            otherNode.destroy();
+            otherNodeQueue.destroy();
+        }
+    }
+
+    @Test
+    void failedCancellationIsCounted() {
+        when(bankIdClient.cancel(ORDER_REFERENCE)).thenReturn(Mono.error(new IllegalStateException("boom")));
+        orderCancellationQueue.cancel(ORDER_REFERENCE);
+        await().untilAsserted(() -> assertThat(meterRegistry.get("bankid.cancel.calls").tag("outcome", "failure").counter().count()).isEqualTo(1));
+        orderCancellationQueue.cancel("other");
+        verify(bankIdClient, timeout(1000)).cancel("other");
+    }
+
+    @Test
+    void keepsCancellingAfterClientThrows() {
+        when(bankIdClient.cancel(ORDER_REFERENCE)).thenThrow(new IllegalStateException("boom"));
+        orderCancellationQueue.cancel(ORDER_REFERENCE);
+        await().untilAsserted(() -> assertThat(meterRegistry.get("bankid.cancel.calls").tag("outcome", "failure").counter().count()).isEqualTo(1));
+        orderCancellationQueue.cancel("other");
+        verify(bankIdClient, timeout(1000)).cancel("other");
+    }
+
+    @Test
+    void countsCancellationsRejectedAfterShutdown() {
+        orderCancellationQueue.destroy();
+        orderCancellationQueue.cancel(ORDER_REFERENCE);
+        assertThat(meterRegistry.get("bankid.cancel.dropped").tag("reason", "fail_terminated").counter().count()).isEqualTo(1);
+    }
+
+    private static final class InMemoryPendingCancelRepository extends PendingCancelRepository {
+        private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+        private InMemoryPendingCancelRepository() {
+            super(null);
+        }
+
+        @Override
+        public Mono<Boolean> mark(String orderReference, String token, Duration ttl) {
+            tokens.put(orderReference, token);
+            return Mono.just(true);
+        }
+
+        @Override
+        public Mono<Boolean> confirm(String orderReference, String token) {
+            return Mono.just(tokens.remove(orderReference, token));
+        }
+
+        @Override
+        public Mono<Boolean> revoke(String orderReference) {
+            return Mono.just(tokens.remove(orderReference) != null);
+        }
+    }
+}
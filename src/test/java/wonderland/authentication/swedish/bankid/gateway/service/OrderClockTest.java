@@ -0,0 +1,40 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class OrderClockTest {
+
+    private final OrderClock orderClock = new OrderClock(CollectProperties.builder().tick(Duration.ofMillis(1)).build());
+
+    @Test
+    void stalledSubscriberDoesNotHoldBackOtherOrders() throws InterruptedException {
+        BaseSubscriber<Long> stalled = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                subscription.request(1);
+            }
+        };
+        orderClock.elapsedSeconds(System.currentTimeMillis()).subscribe(stalled);
+        Thread.sleep(500);
+        List<Long> received = new CopyOnWriteArrayList<>();
+        Disposable running = orderClock.elapsedSeconds(System.currentTimeMillis()).subscribe(received::add);
+        try {
+            await().atMost(Duration.ofSeconds(5)).until(() -> received.size() >= 3);
+            assertThat(received).startsWith(0L, 1L, 2L);
+        } finally {
+            running.dispose();
+            stalled.dispose();
+        }
+    }
+}
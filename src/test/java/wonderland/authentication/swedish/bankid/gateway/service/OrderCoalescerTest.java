@@ -0,0 +1,87 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.config.CoalescingProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrderCoalescerTest {
+
+    private static final String END_USER_IP = "192.168.1.1";
+    private static final String NONCE = "tab-1";
+
+    private final ActiveOrderRegistry activeOrderRegistry = new ActiveOrderRegistry();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OrderCoalescer orderCoalescer = new OrderCoalescer(activeOrderRegistry,
+            CoalescingProperties.builder().window(Duration.ofMillis(300)).build(), meterRegistry);
+    private final AtomicInteger authCalls = new AtomicInteger();
+
+    @Test
+    void attachesDuplicateStartToPendingOrder() {
+        OrderSession first = orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block();
+        activeOrderRegistry.register(first.orderRef(), UseCase.QR, first.startedAtMillis());
+        OrderSession second = orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block();
+        assertThat(second).isSameAs(first);
+        assertThat(authCalls).hasValue(1);
+        assertThat(meterRegistry.get("bankid.auth.coalesced").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void startsNewOrderForOtherUseCaseOrNonce() {
+        orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block();
+        orderCoalescer.coalesce(END_USER_IP, UseCase.SAME_DEVICE, NONCE, this::startSession).block();
+        orderCoalescer.coalesce(END_USER_IP, UseCase.QR, "other-tab", this::startSession).block();
+        assertThat(authCalls).hasValue(3);
+    }
+
+    @Test
+    void doesNotMergeStartsWithoutNonce() {
+        OrderSession first = orderCoalescer.coalesce(END_USER_IP, UseCase.QR, null, this::startSession).block();
+        activeOrderRegistry.register(first.orderRef(), UseCase.QR, first.startedAtMillis());
+        OrderSession second = orderCoalescer.coalesce(END_USER_IP, UseCase.QR, null, this::startSession).block();
+        assertThat(second).isNotSameAs(first);
+        assertThat(authCalls).hasValue(2);
+        assertThat(meterRegistry.get("bankid.auth.coalesced").counter().count()).isZero();
+    }
+
+    @Test
+    void startsNewOrderWhenPreviousOrderEndedOrWindowPassed() throws InterruptedException {
+        OrderSession first = orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block();
+        activeOrderRegistry.register(first.orderRef(), UseCase.QR, first.startedAtMillis());
+        activeOrderRegistry.update(first.orderRef(), CollectResponse.Status.FAILED, "userCancel");
+        OrderSession second = orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block();
+        assertThat(second).isNotSameAs(first);
+        activeOrderRegistry.register(second.orderRef(), UseCase.QR, second.startedAtMillis());
+        Thread.sleep(500);
+        assertThat(orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block()).isNotSameAs(second);
+        assertThat(authCalls).hasValue(3);
+    }
+
+    @Test
+    void doesNotReuseFailedStart() {
+        StepVerifier.create(orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, () -> Mono.error(new IllegalStateException("auth failed"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+        assertThat(orderCoalescer.coalesce(END_USER_IP, UseCase.QR, NONCE, this::startSession).block()).isNotNull();
+        assertThat(authCalls).hasValue(1);
+    }
+
+    private Mono<OrderSession> startSession() {
+        return Mono.fromSupplier(() -> {
+            authCalls.incrementAndGet();
+            return new OrderSession(UUID.randomUUID().toString(), UUID.randomUUID().toString(), UseCase.QR, END_USER_IP,
+                    null, "qrStartToken", "qrStartSecret", System.currentTimeMillis(), AuthenticationStatus.PENDING);
+        });
+    }
+}
@@ -0,0 +1,108 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationEvent;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.CompletedAuthentication;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrderEventStreamTest {
+
+    private static final OrderSession ORDER_SESSION = new OrderSession("handle", "orderRef", UseCase.SAME_DEVICE, "192.168.1.1",
+            "autoStartToken", null, null, 0L, AuthenticationStatus.PENDING);
+
+    private final List<AuthenticationEvent> persisted = new CopyOnWriteArrayList<>();
+
+    @Test
+    void emitsEventsWithHandleAndPersistsTerminalEventBeforeEmittingIt() {
+        Flux<AuthenticationEvent> events = Flux.just(
+                AuthenticationEvent.pending("0", "autoStartToken", "outstandingTransaction"),
+                AuthenticationEvent.complete("1", new CompletedAuthentication("orderRef", "190001010101")),
+                AuthenticationEvent.pending("2", "autoStartToken", "outstandingTransaction"));
+        StepVerifier.create(stream(Mono.just(ORDER_SESSION), events, false))
+                .assertNext(event -> {
+                    assertThat(event.eventId()).isEqualTo("handle:0");
+                    assertThat(persisted).isEmpty();
+                })
+                .assertNext(event -> {
+                    assertThat(event.status()).isEqualTo(AuthenticationStatus.COMPLETE);
+                    assertThat(persisted).containsExactly(event);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void skipsUnchangedEventsInChangesOnlyMode() {
+        Flux<AuthenticationEvent> events = Flux.just(
+                AuthenticationEvent.pending("0", "autoStartToken", "outstandingTransaction"),
+                AuthenticationEvent.pending("1", "autoStartToken", "outstandingTransaction"),
+                AuthenticationEvent.pending("2", "autoStartToken", "userSign"),
+                AuthenticationEvent.pending("3", "autoStartToken", "userSign"),
+                AuthenticationEvent.failed("4", "userCancel"));
+        StepVerifier.create(stream(Mono.just(ORDER_SESSION), events, true), 0)
+                .thenRequest(1)
+                .assertNext(event -> assertThat(event.id()).isEqualTo("0"))
+                .thenRequest(1)
+                .assertNext(event -> assertThat(event.id()).isEqualTo("2"))
+                .thenRequest(1)
+                .assertNext(event -> assertThat(event.id()).isEqualTo("4"))
+                .verifyComplete();
+    }
+
+    @Test
+    void replacesUpstreamErrorWithErrorEventOnceRequested() {
+        TestPublisher<AuthenticationEvent> events = TestPublisher.create();
+        StepVerifier.create(stream(Mono.just(ORDER_SESSION), events.flux(), false), 1)
+                .then(() -> events.next(AuthenticationEvent.pending("0", "autoStartToken", null)))
+                .expectNextCount(1)
+                .then(() -> events.error(new IllegalStateException("collect failed")))
+                .expectNoEvent(Duration.ofMillis(50))
+                .thenRequest(1)
+                .assertNext(event -> {
+                    assertThat(event.status()).isEqualTo(AuthenticationStatus.ERROR);
+                    assertThat(event.handle()).isEqualTo("handle");
+                    assertThat(persisted).containsExactly(event);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void propagatesAdmissionRejectionAndCompletesWithoutSession() {
+        AdmissionRejectedException rejection = new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many orders", Duration.ofSeconds(1));
+        StepVerifier.create(stream(Mono.error(rejection), Flux.never(), false))
+                .verifyErrorMatches(rejection::equals);
+        StepVerifier.create(stream(Mono.empty(), Flux.never(), false))
+                .verifyComplete();
+        StepVerifier.create(stream(Mono.error(new IllegalStateException("auth failed")), Flux.never(), false))
+                .assertNext(event -> assertThat(event.status()).isEqualTo(AuthenticationStatus.ERROR))
+                .verifyComplete();
+    }
+
+    @Test
+    void cancelsUpstreamWhenCancelled() {
+        TestPublisher<AuthenticationEvent> events = TestPublisher.create();
+        StepVerifier.create(stream(Mono.just(ORDER_SESSION), events.flux(), false))
+                .then(() -> events.next(AuthenticationEvent.pending("0", "autoStartToken", null)))
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+        events.assertCancelled();
+    }
+
+    private OrderEventStream stream(Mono<OrderSession> orderSession, Flux<AuthenticationEvent> events, boolean changesOnly) {
+        return new OrderEventStream(orderSession, _ -> events,
+                event -> Mono.fromRunnable(() -> persisted.add(event)), changesOnly);
+    }
+}
@@ -0,0 +1,116 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import wonderland.authentication.swedish.bankid.gateway.config.PrepareProperties;
+import wonderland.authentication.swedish.bankid.gateway.repository.OrderSessionRepository;
+import wonderland.authentication.swedish.bankid.gateway.repository.PreparedOrderRepository;
+import wonderland.authentication.swedish.bankid.gateway.type.AuthenticationStatus;
+import wonderland.authentication.swedish.bankid.gateway.type.OrderSession;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PreparedOrdersTest {
+
+    private static final OrderSession ORDER_SESSION = new OrderSession("handle", "orderRef", UseCase.QR, "192.168.1.1",
+            null, "qrStartToken", "qrStartSecret", 0L, AuthenticationStatus.PENDING);
+
+    private final PreparedOrderRepository preparedOrderRepository = mock(PreparedOrderRepository.class);
+    private final OrderSessionRepository orderSessionRepository = mock(OrderSessionRepository.class);
+    private final OrderCancellationQueue orderCancellationQueue = mock(OrderCancellationQueue.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PreparedOrders preparedOrders = new PreparedOrders(preparedOrderRepository, orderSessionRepository, orderCancellationQueue,
+            PrepareProperties.builder().ttl(Duration.ofMillis(200)).build(), meterRegistry);
+
+    @Test
+    void cancelsPreparedOrderThatIsNotClaimedWithinTtl() {
+        when(preparedOrderRepository.save(eq("handle"), eq("orderRef"), any(Duration.class))).thenReturn(Mono.just(true));
+        when(preparedOrderRepository.claim("handle")).thenReturn(Mono.just(true));
+        when(orderSessionRepository.updateStatus("handle", AuthenticationStatus.FAILED)).thenReturn(Mono.just(true));
+
+        assertThat(preparedOrders.prepare(Mono.just(ORDER_SESSION)).block()).isSameAs(ORDER_SESSION);
+
+        verify(orderCancellationQueue, timeout(1_000)).cancel("orderRef");
+        verify(orderSessionRepository).updateStatus("handle", AuthenticationStatus.FAILED);
+        assertThat(meterRegistry.get("bankid.prepare.orders").tag("outcome", "expired").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void markerOutlivesTheExpirySweep() {
+        ExpiringPreparedOrderRepository expiringRepository = new ExpiringPreparedOrderRepository();
+        PreparedOrders expiringPreparedOrders = new PreparedOrders(expiringRepository, orderSessionRepository, orderCancellationQueue,
+                PrepareProperties.builder().ttl(Duration.ofMillis(200)).build(), meterRegistry);
+        when(orderSessionRepository.updateStatus("handle", AuthenticationStatus.FAILED)).thenReturn(Mono.just(true));
+
+        expiringPreparedOrders.prepare(Mono.just(ORDER_SESSION)).block();
+
+        verify(orderCancellationQueue, timeout(1_000)).cancel("orderRef");
+        verify(orderSessionRepository).updateStatus("handle", AuthenticationStatus.FAILED);
+        assertThat(meterRegistry.get("bankid.prepare.orders").tag("outcome", "expired").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void keepsPreparedOrderThatWasClaimed() {
+        when(preparedOrderRepository.save(eq("handle"), eq("orderRef"), any(Duration.class))).thenReturn(Mono.just(true));
+        when(preparedOrderRepository.claim("handle")).thenReturn(Mono.just(true), Mono.just(false));
+
+        preparedOrders.prepare(Mono.just(ORDER_SESSION)).block();
+        assertThat(preparedOrders.claim("handle").block()).isTrue();
+
+        verify(preparedOrderRepository, timeout(1_000).times(2)).claim("handle");
+        verify(orderCancellationQueue, after(200).never()).cancel(anyString());
+        verify(orderSessionRepository, never()).updateStatus(anyString(), any());
+    }
+
+    @Test
+    void cancelsOrderWhenPreparedMarkerCannotBeSaved() {
+        when(preparedOrderRepository.save(eq("handle"), eq("orderRef"), any(Duration.class)))
+                .thenReturn(Mono.error(new IllegalStateException("redis unavailable")));
+
+        assertThat(preparedOrders.prepare(Mono.just(ORDER_SESSION)).onErrorResume(_ -> Mono.empty()).block()).isNull();
+
+        verify(orderCancellationQueue).cancel("orderRef");
+    }
+
+    @Test
+    void treatsClaimFailureAsUnclaimed() {
+        when(preparedOrderRepository.claim("handle")).thenReturn(Mono.error(new IllegalStateException("redis unavailable")));
+
+        assertThat(preparedOrders.claim("handle").block()).isFalse();
+    }
+
+    private static final class ExpiringPreparedOrderRepository extends PreparedOrderRepository {
+        private final Map<String, Long> expiresAtNanos = new ConcurrentHashMap<>();
+
+        private ExpiringPreparedOrderRepository() {
+            super(null);
+        }
+
+        @Override
+        public Mono<Boolean> save(String handle, String orderReference, Duration ttl) {
+            expiresAtNanos.put(handle, System.nanoTime() + ttl.toNanos());
+            return Mono.just(true);
+        }
+
+        @Override
+        public Mono<Boolean> claim(String handle) {
+            Long expiresAt = expiresAtNanos.remove(handle);
+            return Mono.just(expiresAt != null && System.nanoTime() - expiresAt < 0);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import org.junit.jupiter.api.Test;
+import wonderland.authentication.swedish.bankid.gateway.config.QrProperties;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QrCodeGeneratorTest {
+
+    private static final String QR_START_TOKEN = "131daac9-16c6-4618-beb0-365768f37289";
+    private static final String QR_START_SECRET = "0ce68cf7-7d35-4386-9bad-46ee426cadca";
+
+    private final QrCodeGenerator qrCodeGenerator = new QrCodeGenerator(QrProperties.builder().precomputedFrames(4).build());
+
+    @Test
+    void framesMatchBankIdQrCodeFormat() throws Exception {
+        QrCodeGenerator.QrCodes qrCodes = qrCodeGenerator.forOrder(QR_START_TOKEN, QR_START_SECRET);
+        for (long seconds = 0; seconds <= 120; seconds++) {
+            assertThat(qrCodes.frame(seconds)).isEqualTo(expectedFrame(seconds));
+        }
+    }
+
+    @Test
+    void framesAreStableWhenRequestedOutOfOrder() throws Exception {
+        QrCodeGenerator.QrCodes qrCodes = qrCodeGenerator.forOrder(QR_START_TOKEN, QR_START_SECRET);
+        assertThat(qrCodes.frame(10)).isEqualTo(expectedFrame(10));
+        assertThat(qrCodes.frame(3)).isEqualTo(expectedFrame(3));
+        assertThat(qrCodes.frame(13)).isEqualTo(expectedFrame(13));
+        assertThat(qrCodes.frame(3)).isEqualTo(expectedFrame(3));
+    }
+
+    @Test
+    void knownFrame() {
+        assertThat(qrCodeGenerator.forOrder("67df3917-fa0d-44e5-b327-edcc928297f8", "d28db9a7-4cde-429e-a983-359be676944c").frame(0))
+                .isEqualTo("bankid.67df3917-fa0d-44e5-b327-edcc928297f8.0.dc69358e712458a66a7525beef148ae8526b1c71610eff2c16cdffb4cdac9bf8");
+    }
+
+    private static String expectedFrame(long seconds) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(QR_START_SECRET.getBytes(StandardCharsets.US_ASCII), "HmacSHA256"));
+        String qrAuthCode = String.format("%064x", new BigInteger(1, mac.doFinal(String.valueOf(seconds).getBytes(StandardCharsets.US_ASCII))));
+        return String.join(".", "bankid", QR_START_TOKEN, String.valueOf(seconds), qrAuthCode);
+    }
+}
@@ -0,0 +1,149 @@
+package wonderland.authentication.swedish.bankid.gateway.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClientResponseException;
+import reactor.test.StepVerifier;
+import wonderland.authentication.swedish.bankid.gateway.client.BlockingBankIdClient;
+import wonderland.authentication.swedish.bankid.gateway.client.CircuitOpenException;
+import wonderland.authentication.swedish.bankid.gateway.config.CollectProperties;
+import wonderland.authentication.swedish.bankid.gateway.type.CollectResponse;
+import wonderland.authentication.swedish.bankid.gateway.type.UseCase;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VirtualThreadCollectSourceTest {
+
+    private static final String ORDER_REFERENCE = "131daac9-16c6-4618-beb0-365768f37288";
+
+    private BlockingBankIdClient blockingBankIdClient;
+    private OrderCancellationQueue orderCancellationQueue;
+    private MeterRegistry meterRegistry;
+    private VirtualThreadCollectSource collectSource;
+
+    @BeforeEach
+    void setUp() {
+        blockingBankIdClient = mock(BlockingBankIdClient.class);
+        orderCancellationQueue = mock(OrderCancellationQueue.class);
+        meterRegistry = new SimpleMeterRegistry();
+        CollectProperties collectProperties = CollectProperties.builder()
+                .interval(Duration.ofMillis(100))
+                .orderTimeout(Duration.ofMillis(550))
+                .tick(Duration.ofMillis(10))
+                .wheelSize(64)
+                .engine(CollectProperties.Engine.VIRTUAL_THREADS)
+                .build();
+        collectSource = new VirtualThreadCollectSource(blockingBankIdClient, collectProperties, new CollectPollingPolicy(collectProperties),
+                orderCancellationQueue, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        collectSource.destroy();
+    }
+
+    @Test
+    void collectsOncePerIntervalUntilOrderTimeout() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(collectResponse(CollectResponse.Status.PENDING));
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextCount(6)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+        assertThat(collectSource.activeOrders()).isZero();
+        verify(orderCancellationQueue).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void completesOnTerminalStatus() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(collectResponse(CollectResponse.Status.FAILED));
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 0 && tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        verify(blockingBankIdClient, times(1)).collect(eq(ORDER_REFERENCE), any(Duration.class));
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void stopsPollingWhenSubscriberCancels() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenReturn(collectResponse(CollectResponse.Status.PENDING));
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()).take(2))
+                .expectNextCount(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        await().atMost(Duration.ofMillis(500)).until(() -> collectSource.activeOrders() == 0);
+        verify(blockingBankIdClient, times(2)).collect(eq(ORDER_REFERENCE), any(Duration.class));
+        verify(orderCancellationQueue).cancelAfterGracePeriod(ORDER_REFERENCE);
+    }
+
+    @Test
+    void skipsTicksWhileCollectIsInFlight() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenAnswer(_ -> {
+            Thread.sleep(250);
+            return collectResponse(CollectResponse.Status.PENDING);
+        });
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextCount(2)
+                .thenConsumeWhile(_ -> true)
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+        assertThat(meterRegistry.get("bankid.collect.skipped").tag("useCase", "SAME_DEVICE").counter().count()).isGreaterThanOrEqualTo(2);
+        assertThat(meterRegistry.get("bankid.collect.calls.saved.per.order").tag("useCase", "SAME_DEVICE").summary().totalAmount()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    void retriesAfterCollectTimeout() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenThrow(new HttpTimeoutException("request timed out"))
+                .thenReturn(collectResponse(CollectResponse.Status.FAILED));
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 0 && tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertThat(meterRegistry.get("bankid.collect.timeouts").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(1);
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void keepsOrderPendingWhileCircuitIsOpen() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class)))
+                .thenThrow(new CircuitOpenException(Duration.ofSeconds(1)))
+                .thenThrow(new RestClientResponseException("Collect failed", HttpStatus.SERVICE_UNAVAILABLE, "", null, null, null))
+                .thenReturn(collectResponse(CollectResponse.Status.FAILED));
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectNextMatches(tick -> tick.sequence() == 0 && tick.response().status() == CollectResponse.Status.FAILED)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertThat(meterRegistry.get("bankid.collect.circuit.open").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("bankid.collect.errors").tag("useCase", "SAME_DEVICE").counter().count()).isEqualTo(1);
+        verify(orderCancellationQueue, never()).cancel(ORDER_REFERENCE);
+    }
+
+    @Test
+    void failsAndCancelsOrderOnCollectError() throws Exception {
+        when(blockingBankIdClient.collect(eq(ORDER_REFERENCE), any(Duration.class))).thenThrow(new IllegalStateException("boom"));
+        StepVerifier.create(collectSource.schedule(ORDER_REFERENCE, UseCase.SAME_DEVICE, System.currentTimeMillis()))
+                .expectErrorMessage("boom")
+                .verify(Duration.ofSeconds(1));
+        verify(orderCancellationQueue).cancel(ORDER_REFERENCE);
+    }
+
+    private static CollectResponse collectResponse(CollectResponse.Status status) {
+        return new CollectResponse(ORDER_REFERENCE, status, "hintCode", null);
+    }
+}